@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for CPU-bound work like computing and verifying signatures, which
+ * can be kept apart from threads that do I/O. An executor has a fixed number
+ * of threads and a bounded queue. By default, when the queue is full, a task
+ * is rejected with a RejectedExecutionException; so an overloaded caller finds
+ * out at once, and can shed load or retry later. A different saturation
+ * policy can be given to newExecutor; for example, CallerRunsPolicy makes the
+ * submitting thread run the task itself.
+ */
+public class CryptoExecutor {
+
+    private CryptoExecutor() {
+    }
+
+    /**
+     * The executor used by methods like OAuthMessage.signAsync, when no other
+     * executor is given. It has a daemon thread per processor, queues up to
+     * 256 tasks per thread, and rejects tasks when its queue is full.
+     */
+    public static ExecutorService getDefault() {
+        return Default.EXECUTOR;
+    }
+
+    /** Lazily construct the default executor. */
+    private static class Default {
+        static final ExecutorService EXECUTOR = newExecutor(Runtime.getRuntime().availableProcessors(), 256 * Runtime
+                .getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct an executor with the given number of daemon threads and the
+     * given queue capacity, which rejects tasks when its queue is full.
+     */
+    public static ExecutorService newExecutor(int threads, int queueCapacity) {
+        return newExecutor(threads, queueCapacity, new Reject());
+    }
+
+    /**
+     * Construct an executor with the given number of daemon threads and the
+     * given queue capacity.
+     * 
+     * @param saturated
+     *            handles a task that's submitted when the queue is full, or
+     *            after the executor is shut down
+     */
+    public static ExecutorService newExecutor(int threads, int queueCapacity, RejectedExecutionHandler saturated) {
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new DaemonThreadFactory(), saturated);
+    }
+
+    /** Rejects a task, with an exception that says why. */
+    private static class Reject implements RejectedExecutionHandler {
+
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException(CryptoExecutor.class.getName() + " is shut down");
+            }
+            throw new RejectedExecutionException(CryptoExecutor.class.getName() + " is saturated: "
+                    + executor.getActiveCount() + " threads are busy and " + executor.getQueue().size()
+                    + " tasks are queued");
+        }
+    }
+
+    /**
+     * Whether the current thread belongs to an executor constructed by this
+     * class. Such a thread shouldn't wait for other tasks of its executor,
+     * which might be queued behind the task it's running.
+     */
+    public static boolean isExecutorThread() {
+        return Thread.currentThread() instanceof ExecutorThread;
+    }
+
+    private static class ExecutorThread extends Thread {
+
+        ExecutorThread(Runnable r, String name) {
+            super(r, name);
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOLS = new AtomicInteger();
+
+        private final String prefix = CryptoExecutor.class.getName() + "-" + POOLS.incrementAndGet() + "-";
+        private final AtomicInteger threads = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new ExecutorThread(r, prefix + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A list of HTTP headers, indexed by name. Names are case-insensitive. The
+ * headers stay in the order they were added.
+ * <p>
+ * Appending a header updates the index in place. Other changes (inserting,
+ * replacing or removing headers) discard the index, and it's rebuilt when
+ * it's next needed.
+ */
+public class HeaderList extends AbstractList<Map.Entry<String, String>> implements RandomAccess {
+
+    private final List<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>();
+
+    /**
+     * An open-addressed hash table, keyed by case-folded header name. Each
+     * element is 1 + the index of the last header with some name, or 0 if
+     * the element is unused. This is null if it needs to be rebuilt.
+     */
+    private int[] index;
+
+    /**
+     * Get the value of the last header of the given name. The name is
+     * case-insensitive.
+     */
+    public String getValue(String name) {
+        final int[] index = getIndex();
+        final int h = index[find(index, name)];
+        return (h == 0) ? null : headers.get(h - 1).getValue();
+    }
+
+    /**
+     * Remove all headers of the given name. The name is case insensitive.
+     *
+     * @return the value of the last header with that name, or null to indicate
+     *         there was no such header
+     */
+    public String removeHeaders(String name) {
+        String value = null;
+        boolean removed = false;
+        for (Iterator<Map.Entry<String, String>> i = headers.iterator(); i.hasNext();) {
+            Map.Entry<String, String> header = i.next();
+            if (equalsIgnoreCase(name, header.getKey())) {
+                value = header.getValue();
+                i.remove();
+                removed = true;
+            }
+        }
+        if (removed) {
+            index = null;
+            ++modCount;
+        }
+        return value;
+    }
+
+    @Override
+    public Map.Entry<String, String> get(int i) {
+        return headers.get(i);
+    }
+
+    @Override
+    public int size() {
+        return headers.size();
+    }
+
+    @Override
+    public boolean add(Map.Entry<String, String> header) {
+        headers.add(header);
+        ++modCount;
+        if (index != null) {
+            if (headers.size() * 2 > index.length) {
+                index = null; // to be rebuilt bigger
+            } else {
+                index[find(index, header.getKey())] = headers.size();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void add(int i, Map.Entry<String, String> header) {
+        if (i == headers.size()) {
+            add(header);
+        } else {
+            headers.add(i, header);
+            index = null;
+            ++modCount;
+        }
+    }
+
+    @Override
+    public Map.Entry<String, String> set(int i, Map.Entry<String, String> header) {
+        Map.Entry<String, String> old = headers.set(i, header);
+        index = null;
+        return old;
+    }
+
+    @Override
+    public Map.Entry<String, String> remove(int i) {
+        Map.Entry<String, String> old = headers.remove(i);
+        index = null;
+        ++modCount;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        headers.clear();
+        index = null;
+        ++modCount;
+    }
+
+    private int[] getIndex() {
+        if (index == null) {
+            int capacity = 8;
+            while (capacity < headers.size() * 2) {
+                capacity <<= 1;
+            }
+            final int[] index = new int[capacity];
+            for (int h = 0; h < headers.size(); ++h) {
+                index[find(index, headers.get(h).getKey())] = h + 1;
+            }
+            this.index = index;
+        }
+        return index;
+    }
+
+    /**
+     * @return the element of the given index for the given name: either the
+     *         element that's used for that name, or an unused element.
+     */
+    private int find(int[] index, String name) {
+        final int mask = index.length - 1;
+        for (int e = hash(name) & mask;; e = (e + 1) & mask) {
+            final int h = index[e];
+            if (h == 0 || equalsIgnoreCase(name, headers.get(h - 1).getKey())) {
+                return e;
+            }
+        }
+    }
+
+    /** A hash code that's the same for names that are equal ignoring case. */
+    private static int hash(String name) {
+        if (name == null) {
+            return 0;
+        }
+        int h = 0;
+        for (int i = 0; i < name.length(); ++i) {
+            char c = name.charAt(i);
+            if (c < 0x80) {
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+            } else { // like String.CASE_INSENSITIVE_ORDER
+                c = Character.toLowerCase(Character.toUpperCase(c));
+            }
+            h = 31 * h + c;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equalsIgnoreCase(String x, String y) {
+        if (x == null)
+            return y == null;
+        else
+            return x.equalsIgnoreCase(y);
+    }
+
+}
@@ -16,12 +16,9 @@
 
 package net.oauth;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -57,6 +54,10 @@ public class OAuth {
 
     public static final String HMAC_SHA1 = "HMAC-SHA1";
     public static final String RSA_SHA1 = "RSA-SHA1";
+    public static final String HMAC_SHA256 = "HMAC-SHA256";
+    public static final String RSA_SHA256 = "RSA-SHA256";
+    public static final String ECDSA_SHA256 = "ECDSA-SHA256";
+    public static final String ED25519 = "ED25519";
 
     /**
      * Strings used for <a href="http://wiki.oauth.net/ProblemReporting">problem
@@ -174,9 +175,18 @@ public class OAuth {
      */
     public static String formEncode(Iterable<? extends Map.Entry> parameters)
             throws IOException {
-        ByteArrayOutputStream b = new ByteArrayOutputStream();
-        formEncode(parameters, b);
-        return decodeCharacters(b.toByteArray());
+        StringBuilder form = new StringBuilder();
+        if (parameters != null) {
+            for (Map.Entry parameter : parameters) {
+                if (form.length() > 0) {
+                    form.append('&');
+                }
+                form.append(percentEncodeKey(parameter));
+                form.append('=');
+                form.append(percentEncodeValue(parameter));
+            }
+        }
+        return form.toString();
     }
 
     /**
@@ -187,19 +197,49 @@ public class OAuth {
             OutputStream into) throws IOException {
         if (parameters != null) {
             boolean first = true;
-            for (Map.Entry parameter : parameters) {
+            for (Map.Entry<?, ?> parameter : parameters) {
                 if (first) {
                     first = false;
                 } else {
                     into.write('&');
                 }
-                into.write(encodeCharacters(percentEncode(toString(parameter.getKey()))));
+                writeASCII(percentEncodeKey(parameter), into);
                 into.write('=');
-                into.write(encodeCharacters(percentEncode(toString(parameter.getValue()))));
+                writeASCII(percentEncodeValue(parameter), into);
             }
         }
     }
 
+    private static void writeASCII(String s, OutputStream into)
+            throws IOException {
+        final int n = s.length();
+        for (int i = 0; i < n; ++i) {
+            into.write(s.charAt(i));
+        }
+    }
+
+    /**
+     * The percent-encoding of the given parameter's name. The encoding of a
+     * Parameter is computed only once.
+     */
+    public static String percentEncodeKey(Map.Entry<?, ?> parameter) {
+        if (parameter instanceof Parameter) {
+            return ((Parameter) parameter).getEncodedKey();
+        }
+        return percentEncode(toString(parameter.getKey()));
+    }
+
+    /**
+     * The percent-encoding of the given parameter's value. The encoding of a
+     * Parameter is computed only once (until its value is changed).
+     */
+    public static String percentEncodeValue(Map.Entry<?, ?> parameter) {
+        if (parameter instanceof Parameter) {
+            return ((Parameter) parameter).getEncodedValue();
+        }
+        return percentEncode(toString(parameter.getValue()));
+    }
+
     /** Parse a form-urlencoded document. */
     public static List<Parameter> decodeForm(String form) {
         List<Parameter> list = new ArrayList<Parameter>();
@@ -228,33 +268,317 @@ public class OAuth {
             if (p.length() > 0) {
                 p.append("&");
             }
-            p.append(OAuth.percentEncode(toString(v)));
+            percentEncode(toString(v), p);
         }
         return p.toString();
     }
 
+    /**
+     * Percent-encode the given string, as specified by <a
+     * href="http://tools.ietf.org/html/rfc5849#section-3.6">RFC 5849</a>:
+     * encode it in UTF-8 and escape every byte except the unreserved
+     * characters ALPHA, DIGIT, '-', '.', '_' and '~'.
+     * 
+     * @return the given string, if it doesn't need to be escaped; or "" if
+     *         it's null.
+     */
     public static String percentEncode(String s) {
         if (s == null) {
             return "";
         }
-        try {
-            return URLEncoder.encode(s, ENCODING)
-                    // OAuth encodes some characters differently:
-                    .replace("+", "%20").replace("*", "%2A")
-                    .replace("%7E", "~");
-            // This could be done faster with more hand-crafted code.
-        } catch (UnsupportedEncodingException wow) {
-            throw new RuntimeException(wow.getMessage(), wow);
+        final int first = firstReserved(s);
+        if (first >= s.length()) {
+            return s;
+        }
+        StringBuilder into = new StringBuilder(s.length() + 16);
+        into.append(s, 0, first);
+        percentEncode(s, first, into);
+        return into.toString();
+    }
+
+    /**
+     * Append the percent-encoding of the given string. Nothing is appended if
+     * the string is null.
+     * 
+     * @return into
+     */
+    public static StringBuilder percentEncode(String s, StringBuilder into) {
+        if (s != null) {
+            percentEncode(s, 0, into);
+        }
+        return into;
+    }
+
+    /**
+     * Append the percent-encoding of the given string. Nothing is appended if
+     * the string is null.
+     */
+    public static void percentEncode(String s, Appendable into)
+            throws IOException {
+        if (s != null) {
+            final int n = s.length();
+            final int first = firstReserved(s);
+            into.append(s, 0, first);
+            for (int i = first; i < n; ++i) {
+                final char c = s.charAt(i);
+                if (c < 0x80) {
+                    if (UNRESERVED[c]) {
+                        into.append(c);
+                    } else {
+                        appendEscaped(c, into);
+                    }
+                } else if (c < 0x800) {
+                    appendEscaped(0xC0 | (c >> 6), into);
+                    appendEscaped(0x80 | (c & 0x3F), into);
+                } else {
+                    int codePoint = codePointAt(s, i);
+                    if (codePoint > 0xFFFF) {
+                        ++i;
+                    }
+                    for (byte b : toUTF8(codePoint)) {
+                        appendEscaped(b, into);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the percent-encoding of the given string. The encoding consists of
+     * ASCII characters, which are written one byte each. Nothing is written if
+     * the string is null.
+     */
+    public static void percentEncode(String s, OutputStream into)
+            throws IOException {
+        if (s != null) {
+            final int n = s.length();
+            for (int i = 0; i < n; ++i) {
+                final char c = s.charAt(i);
+                if (c < 0x80) {
+                    if (UNRESERVED[c]) {
+                        into.write(c);
+                    } else {
+                        writeEscaped(c, into);
+                    }
+                } else {
+                    int codePoint = codePointAt(s, i);
+                    if (codePoint > 0xFFFF) {
+                        ++i;
+                    }
+                    for (byte b : toUTF8(codePoint)) {
+                        writeEscaped(b, into);
+                    }
+                }
+            }
+        }
+    }
+
+    /** @return the index of the first character that must be escaped */
+    private static int firstReserved(String s) {
+        final int n = s.length();
+        for (int i = 0; i < n; ++i) {
+            final char c = s.charAt(i);
+            if (c >= 0x80 || !UNRESERVED[c]) {
+                return i;
+            }
         }
+        return n;
     }
 
+    /** Append the percent-encoding of s, starting at the given index. */
+    private static StringBuilder percentEncode(String s, int from,
+            StringBuilder into) {
+        final int n = s.length();
+        for (int i = from; i < n; ++i) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                if (UNRESERVED[c]) {
+                    into.append(c);
+                } else {
+                    appendEscaped(c, into);
+                }
+            } else if (c < 0x800) {
+                appendEscaped(0xC0 | (c >> 6), into);
+                appendEscaped(0x80 | (c & 0x3F), into);
+            } else {
+                int codePoint = codePointAt(s, i);
+                if (codePoint > 0xFFFF) {
+                    ++i;
+                }
+                for (byte b : toUTF8(codePoint)) {
+                    appendEscaped(b, into);
+                }
+            }
+        }
+        return into;
+    }
+
+    /**
+     * The code point at the given index. An unpaired surrogate is replaced
+     * with '?', as String.getBytes does.
+     */
+    private static int codePointAt(String s, int i) {
+        final char c = s.charAt(i);
+        if (Character.isHighSurrogate(c)) {
+            if (i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                return Character.toCodePoint(c, s.charAt(i + 1));
+            }
+            return '?';
+        } else if (Character.isLowSurrogate(c)) {
+            return '?';
+        }
+        return c;
+    }
+
+    private static byte[] toUTF8(int codePoint) {
+        if (codePoint < 0x80) {
+            return new byte[] { (byte) codePoint };
+        } else if (codePoint < 0x800) {
+            return new byte[] { (byte) (0xC0 | (codePoint >> 6)),
+                    (byte) (0x80 | (codePoint & 0x3F)) };
+        } else if (codePoint < 0x10000) {
+            return new byte[] { (byte) (0xE0 | (codePoint >> 12)),
+                    (byte) (0x80 | ((codePoint >> 6) & 0x3F)),
+                    (byte) (0x80 | (codePoint & 0x3F)) };
+        }
+        return new byte[] { (byte) (0xF0 | (codePoint >> 18)),
+                (byte) (0x80 | ((codePoint >> 12) & 0x3F)),
+                (byte) (0x80 | ((codePoint >> 6) & 0x3F)),
+                (byte) (0x80 | (codePoint & 0x3F)) };
+    }
+
+    private static void appendEscaped(int b, StringBuilder into) {
+        into.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    private static void appendEscaped(int b, Appendable into)
+            throws IOException {
+        into.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    private static void writeEscaped(int b, OutputStream into)
+            throws IOException {
+        into.write('%');
+        into.write(HEX[(b >> 4) & 0xF]);
+        into.write(HEX[b & 0xF]);
+    }
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /** UNRESERVED[c] is true if the ASCII character c needn't be escaped. */
+    private static final boolean[] UNRESERVED = new boolean[0x80];
+    static {
+        for (char c = 'A'; c <= 'Z'; ++c) {
+            UNRESERVED[c] = true;
+            UNRESERVED[Character.toLowerCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; ++c) {
+            UNRESERVED[c] = true;
+        }
+        for (char c : "-._~".toCharArray()) {
+            UNRESERVED[c] = true;
+        }
+    }
+
+    /**
+     * Decode the given percent-encoded string. '+' is decoded as a space, and
+     * the escaped bytes are decoded as UTF-8. This implements <a
+     * href="http://oauth.pbwiki.com/FlexibleDecoding">flexible decoding</a>.
+     * 
+     * @return the given string, if it contains no escapes.
+     * @throws IllegalArgumentException
+     *             an escape isn't followed by two hexadecimal digits
+     */
     public static String decodePercent(String s) {
-        try {
-            return URLDecoder.decode(s, ENCODING);
-            // This implements http://oauth.pbwiki.com/FlexibleDecoding
-        } catch (java.io.UnsupportedEncodingException wow) {
-            throw new RuntimeException(wow.getMessage(), wow);
+        return decodePercent(s, 0, s.length());
+    }
+
+    /**
+     * Decode the percent-encoded characters from s[from] to s[to - 1], like
+     * decodePercent(String).
+     * 
+     * @return the substring, if it contains no escapes.
+     */
+    static String decodePercent(String s, int from, int to) {
+        int first = from;
+        while (first < to && s.charAt(first) != '%' && s.charAt(first) != '+') {
+            ++first;
         }
+        if (first >= to) {
+            return s.substring(from, to);
+        }
+        StringBuilder into = new StringBuilder(to - from);
+        into.append(s, from, first);
+        decodePercent(s, first, to, into);
+        return into.toString();
+    }
+
+    /**
+     * Append the decoding of the given percent-encoded string.
+     * 
+     * @return into
+     * @throws IllegalArgumentException
+     *             an escape isn't followed by two hexadecimal digits
+     */
+    public static StringBuilder decodePercent(String s, StringBuilder into) {
+        return decodePercent(s, 0, s.length(), into);
+    }
+
+    private static StringBuilder decodePercent(String s, int from, int to,
+            StringBuilder into) {
+        final int n = to;
+        byte[] bytes = null;
+        for (int i = from; i < n;) {
+            final char c = s.charAt(i);
+            if (c == '+') {
+                into.append(' ');
+                ++i;
+            } else if (c != '%') {
+                into.append(c);
+                ++i;
+            } else {
+                // Decode a sequence of consecutive escapes together, since
+                // they might encode one character in several bytes.
+                if (bytes == null) {
+                    bytes = new byte[(n - i) / 3];
+                }
+                int length = 0;
+                boolean ascii = true;
+                while (i < n && s.charAt(i) == '%') {
+                    if (i + 2 >= n) {
+                        throw new IllegalArgumentException("incomplete escape in " + s);
+                    }
+                    int b = (hexValue(s, i + 1) << 4) | hexValue(s, i + 2);
+                    ascii &= (b < 0x80);
+                    bytes[length++] = (byte) b;
+                    i += 3;
+                }
+                if (ascii) {
+                    for (int b = 0; b < length; ++b) {
+                        into.append((char) bytes[b]);
+                    }
+                } else {
+                    try {
+                        into.append(new String(bytes, 0, length, ENCODING));
+                    } catch (UnsupportedEncodingException wow) {
+                        throw new RuntimeException(wow.getMessage(), wow);
+                    }
+                }
+            }
+        }
+        return into;
+    }
+
+    private static int hexValue(String s, int i) {
+        final char c = s.charAt(i);
+        if ('0' <= c && c <= '9') {
+            return c - '0';
+        } else if ('A' <= c && c <= 'F') {
+            return c - 'A' + 10;
+        } else if ('a' <= c && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        throw new IllegalArgumentException("illegal hex character '" + c + "' in " + s);
     }
 
     /**
@@ -292,10 +616,21 @@ public class OAuth {
             this.value = value;
         }
 
+        /** Construct a copy of the given parameter, with the same encoding. */
+        public Parameter(Parameter from) {
+            this.key = from.key;
+            this.value = from.value;
+            this.encodedKey = from.encodedKey;
+            this.encodedValue = from.encodedValue;
+        }
+
         private final String key;
 
         private String value;
 
+        /** The percent-encoded key and value, computed when first needed */
+        private String encodedKey, encodedValue;
+
         public String getKey() {
             return key;
         }
@@ -309,12 +644,33 @@ public class OAuth {
                 return this.value;
             } finally {
                 this.value = value;
+                this.encodedValue = null;
+            }
+        }
+
+        /** The percent-encoding of the key. */
+        public String getEncodedKey() {
+            // Concurrent threads might compute this redundantly,
+            // but they all get the same result.
+            String encoded = encodedKey;
+            if (encoded == null) {
+                encodedKey = encoded = percentEncode(key);
+            }
+            return encoded;
+        }
+
+        /** The percent-encoding of the value. */
+        public String getEncodedValue() {
+            String encoded = encodedValue;
+            if (encoded == null) {
+                encodedValue = encoded = percentEncode(value);
             }
+            return encoded;
         }
 
         @Override
         public String toString() {
-            return percentEncode(getKey()) + '=' + percentEncode(getValue());
+            return getEncodedKey() + '=' + getEncodedValue();
         }
 
         @Override
@@ -28,8 +28,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import net.oauth.signature.OAuthSignatureMethod;
 
@@ -59,8 +61,13 @@ public class OAuthMessage {
         } else {
             this.parameters = new ArrayList<Map.Entry<String, String>>(parameters.size());
             for (Map.Entry p : parameters) {
-                this.parameters.add(new OAuth.Parameter(
-                        toString(p.getKey()), toString(p.getValue())));
+                if (p instanceof OAuth.Parameter) {
+                    // A copy, so changing it doesn't change the original:
+                    this.parameters.add(new OAuth.Parameter((OAuth.Parameter) p));
+                } else {
+                    this.parameters.add(new OAuth.Parameter(
+                            toString(p.getKey()), toString(p.getValue())));
+                }
             }
         }
     }
@@ -69,9 +76,14 @@ public class OAuthMessage {
     public String URL;
 
     private final List<Map.Entry<String, String>> parameters;
+    /**
+     * The first value of each parameter. It's constructed when it's first
+     * needed, and then kept up to date as parameters are added.
+     */
     private Map<String, String> parameterMap;
     private boolean parametersAreComplete = false;
-    private final List<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>();
+    private final HeaderList headers = new HeaderList();
+    private boolean headersAreComplete = false;
     private final InputStream bodyAsStream;
     
     public String toString() {
@@ -104,13 +116,19 @@ public class OAuthMessage {
 
     public void addParameter(Map.Entry<String, String> parameter) {
         parameters.add(parameter);
-        parameterMap = null;
+        if (parameterMap != null) {
+            index(parameter);
+        }
     }
 
     public void addParameters(
             Collection<? extends Map.Entry<String, String>> parameters) {
         this.parameters.addAll(parameters);
-        parameterMap = null;
+        if (parameterMap != null) {
+            for (Map.Entry<String, String> parameter : parameters) {
+                index(parameter);
+            }
+        }
     }
 
     public String getParameter(String name) throws IOException {
@@ -135,12 +153,25 @@ public class OAuthMessage {
 
     protected Map<String, String> getParameterMap() throws IOException {
         beforeGetParameter();
+        return parameterMap();
+    }
+
+    /** Get parameterMap, without completing the parameters. */
+    private Map<String, String> parameterMap() {
         if (parameterMap == null) {
             parameterMap = OAuth.newMap(parameters);
         }
         return parameterMap;
     }
 
+    /** Add the given parameter to parameterMap, unless it has that name already. */
+    private void index(Map.Entry<String, String> parameter) {
+        String name = toString(parameter.getKey());
+        if (!parameterMap.containsKey(name)) {
+            parameterMap.put(name, toString(parameter.getValue()));
+        }
+    }
+
     /**
      * The MIME type of the body of this message.
      * 
@@ -168,20 +199,31 @@ public class OAuthMessage {
      *         no such header in this message.
      */
     public final String getHeader(String name) {
-        String value = null; // no such header
-        for (Map.Entry<String, String> header : getHeaders()) {
-            if (name.equalsIgnoreCase(header.getKey())) {
-                value = header.getValue();
-            }
-        }
-        return value;
+        beforeGetHeader();
+        return headers.getValue(name);
     }
 
     /** All HTTP headers.  You can add headers to this list. */
     public final List<Map.Entry<String, String>> getHeaders() {
+        beforeGetHeader();
         return headers;
     }
 
+    /** A caller is about to get a header. */
+    private void beforeGetHeader() {
+        if (!headersAreComplete) {
+            headersAreComplete = true; // completeHeaders may call getHeaders.
+            completeHeaders();
+        }
+    }
+
+    /**
+     * Finish adding headers; for example copy them from an HTTP request. This
+     * is called when the headers are first needed.
+     */
+    protected void completeHeaders() {
+    }
+
     /**
      * Read the body of the HTTP request or response and convert it to a String.
      * This method isn't repeatable, since it consumes and closes getBodyAsStream.
@@ -257,7 +299,7 @@ public class OAuthMessage {
      */
     public void addRequiredParameters(OAuthAccessor accessor)
             throws OAuthException, IOException, URISyntaxException {
-        final Map<String, String> pMap = OAuth.newMap(parameters);
+        final Map<String, String> pMap = parameterMap();
         if (pMap.get(OAuth.OAUTH_TOKEN) == null && accessor.accessToken != null) {
             addParameter(OAuth.OAUTH_TOKEN, accessor.accessToken);
         }
@@ -292,7 +334,38 @@ public class OAuthMessage {
      */
     public void sign(OAuthAccessor accessor) throws IOException,
             OAuthException, URISyntaxException {
-        OAuthSignatureMethod.newSigner(this, accessor).sign(this);
+        OAuthSignatureMethod.getSigner(this, accessor).sign(this);
+    }
+
+    /**
+     * Add a signature to the message, in a thread of the default
+     * {@link CryptoExecutor}.
+     * 
+     * @see #signAsync(OAuthAccessor, ExecutorService)
+     */
+    public Future<OAuthMessage> signAsync(OAuthAccessor accessor) {
+        return signAsync(accessor, CryptoExecutor.getDefault());
+    }
+
+    /**
+     * Add a signature to the message, in a thread of the given executor. The
+     * caller mustn't access the message until the signature has been added.
+     * 
+     * @return a Future that yields this message, or throws an
+     *         ExecutionException caused by the exception that sign would
+     *         throw.
+     * @throws RejectedExecutionException
+     *             if the executor can't accept the task, for example because
+     *             its queue is full
+     */
+    public Future<OAuthMessage> signAsync(final OAuthAccessor accessor,
+            ExecutorService executor) {
+        return executor.submit(new Callable<OAuthMessage>() {
+            public OAuthMessage call() throws Exception {
+                sign(accessor);
+                return OAuthMessage.this;
+            }
+        });
     }
 
     /**
@@ -311,8 +384,8 @@ public class OAuthMessage {
                 if (name.startsWith("oauth_")) {
                     if (into.length() > 0) into.append(",");
                     into.append(" ");
-                    into.append(OAuth.percentEncode(name)).append("=\"");
-                    into.append(OAuth.percentEncode(toString(parameter.getValue()))).append('"');
+                    into.append(OAuth.percentEncodeKey(parameter)).append("=\"");
+                    into.append(OAuth.percentEncodeValue(parameter)).append('"');
                 }
             }
         }
@@ -347,27 +420,111 @@ public class OAuthMessage {
      * Parse the parameters from an OAuth Authorization or WWW-Authenticate
      * header. The realm is included as a parameter. If the given header doesn't
      * start with "OAuth ", return an empty list.
+     * <p>
+     * Each parameter is a name, '=' and a value in double quotes, and commas
+     * separate the parameters. Whitespace is allowed around the '=' and the
+     * commas, and a quoted value may contain commas and whitespace. A
+     * backslash in a quoted value escapes the next character, so \" stands for
+     * a quote and \\ for a backslash. A parameter that isn't formed this way
+     * is ignored.
      */
     public static List<OAuth.Parameter> decodeAuthorization(String authorization) {
         List<OAuth.Parameter> into = new ArrayList<OAuth.Parameter>();
-        if (authorization != null) {
-            Matcher m = AUTHORIZATION.matcher(authorization);
-            if (m.matches()) {
-                if (AUTH_SCHEME.equalsIgnoreCase(m.group(1))) {
-                    for (String nvp : m.group(2).split("\\s*,\\s*")) {
-                        m = NVP.matcher(nvp);
-                        if (m.matches()) {
-                            String name = OAuth.decodePercent(m.group(1));
-                            String value = OAuth.decodePercent(m.group(2));
-                            into.add(new OAuth.Parameter(name, value));
+        if (authorization == null) {
+            return into;
+        }
+        final int n = authorization.length();
+        int p = skipWhitespace(authorization, 0);
+        final int scheme = p;
+        while (p < n && isWordChar(authorization.charAt(p))) {
+            ++p;
+        }
+        if (p - scheme != AUTH_SCHEME.length()
+                || !authorization.regionMatches(true, scheme, AUTH_SCHEME, 0, p - scheme)
+                || p >= n || !isWhitespace(authorization.charAt(p))) {
+            return into;
+        }
+        while (p < n) {
+            p = skipWhitespace(authorization, p);
+            if (p >= n) {
+                break;
+            } else if (authorization.charAt(p) == ',') {
+                ++p;
+                continue;
+            }
+            final int nameStart = p;
+            int c;
+            while (p < n && (c = authorization.charAt(p)) != '=' && c != ',' && !isWhitespace(c)) {
+                ++p;
+            }
+            final int nameEnd = p;
+            p = skipWhitespace(authorization, p);
+            if (p < n && authorization.charAt(p) == '=') {
+                p = skipWhitespace(authorization, p + 1);
+                if (p < n && authorization.charAt(p) == '"') {
+                    final int valueStart = ++p;
+                    boolean escaped = false;
+                    while (p < n && (c = authorization.charAt(p)) != '"') {
+                        if (c == '\\') { // a quoted-pair
+                            escaped = true;
+                            ++p;
                         }
+                        ++p;
+                    }
+                    if (p >= n) {
+                        break; // The value is incomplete.
+                    }
+                    final int valueEnd = p;
+                    p = skipWhitespace(authorization, valueEnd + 1);
+                    if (p >= n || authorization.charAt(p) == ',') {
+                        into.add(new OAuth.Parameter( //
+                                OAuth.decodePercent(authorization, nameStart, nameEnd), //
+                                escaped ? OAuth.decodePercent(unquote(authorization, valueStart, valueEnd))
+                                        : OAuth.decodePercent(authorization, valueStart, valueEnd)));
+                        continue;
                     }
                 }
             }
+            // This parameter is malformed. Skip it:
+            p = authorization.indexOf(',', p);
+            if (p < 0) {
+                break;
+            }
         }
         return into;
     }
 
+    /** Remove the backslash from each quoted-pair in s[from] to s[to - 1]. */
+    private static String unquote(String s, int from, int to) {
+        StringBuilder into = new StringBuilder(to - from);
+        for (int p = from; p < to; ++p) {
+            char c = s.charAt(p);
+            if (c == '\\') {
+                c = s.charAt(++p);
+            }
+            into.append(c);
+        }
+        return into.toString();
+    }
+
+    private static int skipWhitespace(String s, int p) {
+        final int n = s.length();
+        while (p < n && isWhitespace(s.charAt(p))) {
+            ++p;
+        }
+        return p;
+    }
+
+    /** The characters in the regular expression class \s. */
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /** The characters in the regular expression class \w. */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
     public static final String AUTH_SCHEME = "OAuth";
 
     public static final String GET = "GET";
@@ -375,9 +532,6 @@ public class OAuthMessage {
     public static final String PUT = "PUT";
     public static final String DELETE = "DELETE";
 
-    private static final Pattern AUTHORIZATION = Pattern.compile("\\s*(\\w*)\\s+(.*)");
-    private static final Pattern NVP = Pattern.compile("(\\S*)\\s*\\=\\s*\"([^\"]*)\"");
-
     private static final String toString(Object from) {
         return (from == null) ? null : from.toString();
     }
@@ -16,8 +16,11 @@
 
 package net.oauth;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * An OAuth-related problem, described using a set of named parameters. One
@@ -46,16 +49,37 @@ public class OAuthProblemException extends OAuthException {
     public static final String URL = "URL";
 
     public OAuthProblemException() {
+        this.problem = null;
     }
 
     public OAuthProblemException(String problem) {
         super(problem);
-        if (problem != null) {
-            parameters.put(OAUTH_PROBLEM, problem);
-        }
+        this.problem = problem;
+    }
+
+    /**
+     * Construct an exception that reports a rejected request, without a stack
+     * trace. Filling in a stack trace is the most expensive part of
+     * constructing an exception, and it's no use for a problem that's caused
+     * by the request rather than a bug; for example
+     * {@link OAuth.Problems#NONCE_USED},
+     * {@link OAuth.Problems#TIMESTAMP_REFUSED},
+     * {@link OAuth.Problems#SIGNATURE_INVALID} or
+     * {@link OAuth.Problems#CONSUMER_KEY_UNKNOWN}. So a provider can reject a
+     * flood of replayed or forged requests cheaply.
+     */
+    public static OAuthProblemException newRejection(String problem) {
+        return new Rejection(problem);
     }
 
-    private final Map<String, Object> parameters = new HashMap<String, Object>();
+    /** The value of the oauth_problem parameter, until parameters is constructed. */
+    private final String problem;
+
+    /** Constructed when a parameter is first set or read. */
+    private Map<String, Object> parameters;
+
+    /** Parameters whose values haven't been computed yet. */
+    private transient Map<String, Callable<?>> lazyParameters;
 
     @Override
     public String getMessage() {
@@ -88,19 +112,81 @@ public class OAuthProblemException extends OAuthException {
     }
 
     public void setParameter(String name, Object value) {
-        getParameters().put(name, value);
+        if (lazyParameters != null) {
+            lazyParameters.remove(name);
+        }
+        getParameterMap().put(name, value);
+    }
+
+    /**
+     * Set a parameter whose value is computed only if it's needed; that is
+     * when {@link #getParameters} is called. This is useful for diagnostic
+     * information that's expensive to construct, like the signature base
+     * string. If the computation fails, the parameter is omitted.
+     */
+    public void setLazyParameter(String name, Callable<?> value) {
+        if (parameters != null) {
+            parameters.remove(name);
+        }
+        if (lazyParameters == null) {
+            lazyParameters = new HashMap<String, Callable<?>>();
+        }
+        lazyParameters.put(name, value);
     }
 
     public Map<String, Object> getParameters() {
+        final Map<String, Object> parameters = getParameterMap();
+        if (lazyParameters != null) {
+            for (Map.Entry<String, Callable<?>> lazy : lazyParameters.entrySet()) {
+                try {
+                    parameters.put(lazy.getKey(), lazy.getValue().call());
+                } catch (Exception ignored) {
+                    // This diagnostic information isn't available.
+                }
+            }
+            lazyParameters = null;
+        }
+        return parameters;
+    }
+
+    /**
+     * Get the parameters whose values have been computed. Unlike
+     * getParameters, this doesn't compute lazy parameters; so it omits
+     * diagnostic information that nobody has asked for yet.
+     */
+    public Map<String, Object> getComputedParameters() {
+        return getParameterMap();
+    }
+
+    private Map<String, Object> getParameterMap() {
+        if (parameters == null) {
+            parameters = new HashMap<String, Object>();
+            if (problem != null) {
+                parameters.put(OAUTH_PROBLEM, problem);
+            }
+        }
         return parameters;
     }
 
+    /**
+     * Get the value of the given parameter. Unlike getParameters, this
+     * doesn't compute the values of other lazy parameters.
+     */
+    public Object getParameter(String name) {
+        if (lazyParameters != null && lazyParameters.containsKey(name)) {
+            return getParameters().get(name);
+        } else if (parameters == null) {
+            return OAUTH_PROBLEM.equals(name) ? problem : null;
+        }
+        return parameters.get(name);
+    }
+
     public String getProblem() {
-        return (String) getParameters().get(OAUTH_PROBLEM);
+        return (String) getParameter(OAUTH_PROBLEM);
     }
 
     public int getHttpStatusCode() {
-        Object code = getParameters().get(HTTP_STATUS_CODE);
+        Object code = getParameter(HTTP_STATUS_CODE);
         if (code == null) {
             return 200;
         } else if (code instanceof Number) { // the usual case
@@ -143,6 +229,26 @@ public class OAuthProblemException extends OAuthException {
         return s.toString();
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getParameters(); // Compute the lazy parameters, which aren't serializable.
+        out.defaultWriteObject();
+    }
+
     private static final long serialVersionUID = 1L;
 
+    /** An OAuthProblemException without a stack trace. */
+    private static class Rejection extends OAuthProblemException {
+
+        Rejection(String problem) {
+            super(problem);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this; // Don't bother.
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
 }
@@ -1,11 +1,10 @@
 /*
- * Copyright 2001-2008 The Apache Software Foundation.
- * The ASF licenses this file to You under the Apache License, Version 2.0
- * (the "License"); you may not use this file except in compliance with
- * the License.  You may obtain a copy of the License at
- * 
- *      http://www.apache.org/licenses/LICENSE-2.0
- * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
@@ -15,700 +14,216 @@
 
 package net.oauth.signature;
 
-import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
+import java.io.IOException;
 
 /**
- * Provides Base64 encoding and decoding as defined by RFC 2045.
- * 
+ * Base64 encoding and decoding as defined by RFC 2045, without line breaks.
+ * The methods read and write caller-supplied arrays, so short values like
+ * signatures can be encoded, decoded and compared without intermediate
+ * copies.
  * <p>
- * This class implements section <cite>6.8. Base64 Content-Transfer-Encoding</cite> from RFC 2045 <cite>Multipurpose
- * Internet Mail Extensions (MIME) Part One: Format of Internet Message Bodies</cite> by Freed and Borenstein.
- * </p>
- * 
- * @see <a href="http://www.ietf.org/rfc/rfc2045.txt">RFC 2045</a>
- * @author Apache Software Foundation
- * @author John Kristian
+ * Decoding is lenient: characters outside the Base64 alphabet (like line
+ * breaks) are ignored, and decoding stops at the first '='.
  */
 class Base64 {
-    /**
-     * Chunk size per RFC 2045 section 6.8.
-     * 
-     * <p>
-     * The {@value} character limit does not count the trailing CRLF, but counts all other characters, including any
-     * equal signs.
-     * </p>
-     * 
-     * @see <a href="http://www.ietf.org/rfc/rfc2045.txt">RFC 2045 section 6.8</a>
-     */
-    static final int CHUNK_SIZE = 76;
-
-    /**
-     * Chunk separator per RFC 2045 section 2.1.
-     * 
-     * @see <a href="http://www.ietf.org/rfc/rfc2045.txt">RFC 2045 section 2.1</a>
-     */
-    static final byte[] CHUNK_SEPARATOR = {'\r','\n'};
-
-    /**
-     * This array is a lookup table that translates 6-bit positive integer
-     * index values into their "Base64 Alphabet" equivalents as specified
-     * in Table 1 of RFC 2045.
-     *
-     * Thanks to "commons" project in ws.apache.org for this code. 
-     * http://svn.apache.org/repos/asf/webservices/commons/trunk/modules/util/
-     */
-    private static final byte[] intToBase64 = {
-            'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M',
-            'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z',
-            'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm',
-            'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z',
-            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '+', '/'
-    };
-
-    /**
-     * Byte used to pad output.
-     */
-    private static final byte PAD = '=';
-
-    /**
-     * This array is a lookup table that translates unicode characters
-     * drawn from the "Base64 Alphabet" (as specified in Table 1 of RFC 2045)
-     * into their 6-bit positive integer equivalents.  Characters that
-     * are not in the Base64 alphabet but fall within the bounds of the
-     * array are translated to -1.
-     *
-     * Thanks to "commons" project in ws.apache.org for this code.
-     * http://svn.apache.org/repos/asf/webservices/commons/trunk/modules/util/ 
-     */
-    private static final byte[] base64ToInt = {
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, 62, -1, -1, -1, 63, 52, 53, 54,
-            55, 56, 57, 58, 59, 60, 61, -1, -1, -1, -1, -1, -1, -1, 0, 1, 2, 3, 4,
-            5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23,
-            24, 25, -1, -1, -1, -1, -1, -1, 26, 27, 28, 29, 30, 31, 32, 33, 34,
-            35, 36, 37, 38, 39, 40, 41, 42, 43, 44, 45, 46, 47, 48, 49, 50, 51
-    };
-
-    /** Mask used to extract 6 bits, used when encoding */
-    private static final int MASK_6BITS = 0x3f;
 
-    /** Mask used to extract 8 bits, used in decoding base64 bytes */
-    private static final int MASK_8BITS = 0xff;
-
-    // The static final fields above are used for the original static byte[] methods on Base64.
-    // The private member fields below are used with the new streaming approach, which requires
-    // some state be preserved between calls of encode() and decode().
-
-
-    /**
-     * Line length for encoding.  Not used when decoding.  A value of zero or less implies
-     * no chunking of the base64 encoded data.
-     */
-    private final int lineLength;
-
-    /**
-     * Line separator for encoding.  Not used when decoding.  Only used if lineLength > 0.
-     */
-    private final byte[] lineSeparator;
-
-    /**
-     * Convenience variable to help us determine when our buffer is going to run out of
-     * room and needs resizing.  <code>decodeSize = 3 + lineSeparator.length;</code>
-     */
-    private final int decodeSize;
-
-    /**
-     * Convenience variable to help us determine when our buffer is going to run out of
-     * room and needs resizing.  <code>encodeSize = 4 + lineSeparator.length;</code>
-     */
-    private final int encodeSize;
-
-    /**
-     * Buffer for streaming. 
-     */
-    private byte[] buf;
-
-    /**
-     * Position where next character should be written in the buffer.
-     */
-    private int pos;
-
-    /**
-     * Position where next character should be read from the buffer.
-     */
-    private int readPos;
-
-    /**
-     * Variable tracks how many characters have been written to the current line.
-     * Only used when encoding.  We use it to make sure each encoded line never
-     * goes beyond lineLength (if lineLength > 0).
-     */
-    private int currentLinePos;
-
-    /**
-     * Writes to the buffer only occur after every 3 reads when encoding, an
-     * every 4 reads when decoding.  This variable helps track that.
-     */
-    private int modulus;
-
-    /**
-     * Boolean flag to indicate the EOF has been reached.  Once EOF has been
-     * reached, this Base64 object becomes useless, and must be thrown away.
-     */
-    private boolean eof;
-
-    /**
-     * Place holder for the 3 bytes we're dealing with for our base64 logic.
-     * Bitwise operations store and extract the base64 encoding or decoding from
-     * this variable.
-     */
-    private int x;
-
-    /**
-     * Default constructor:  lineLength is 76, and the lineSeparator is CRLF
-     * when encoding, and all forms can be decoded.
-     */
-    public Base64() {
-        this(CHUNK_SIZE, CHUNK_SEPARATOR);
+    private Base64() {
     }
 
-    /**
-     * <p>
-     * Consumer can use this constructor to choose a different lineLength
-     * when encoding (lineSeparator is still CRLF).  All forms of data can
-     * be decoded.
-     * </p><p>
-     * Note:  lineLengths that aren't multiples of 4 will still essentially
-     * end up being multiples of 4 in the encoded data.
-     * </p>
-     *
-     * @param lineLength each line of encoded data will be at most this long
-     * (rounded up to nearest multiple of 4). 
-     * If lineLength <= 0, then the output will not be divided into lines (chunks).  
-     * Ignored when decoding.
-     */
-    public Base64(int lineLength) {
-        this(lineLength, CHUNK_SEPARATOR);
-    }
+    private static final char[] ENCODE = ("ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "abcdefghijklmnopqrstuvwxyz0123456789+/").toCharArray();
 
-    /**
-     * <p>
-     * Consumer can use this constructor to choose a different lineLength
-     * and lineSeparator when encoding.  All forms of data can
-     * be decoded.
-     * </p><p>
-     * Note:  lineLengths that aren't multiples of 4 will still essentially
-     * end up being multiples of 4 in the encoded data.
-     * </p>
-     * @param lineLength    Each line of encoded data will be at most this long
-     *                      (rounded up to nearest multiple of 4).  Ignored when decoding.
-     *                      If <= 0, then output will not be divided into lines (chunks).
-     * @param lineSeparator Each line of encoded data will end with this
-     *                      sequence of bytes.
-     *                      If lineLength <= 0, then the lineSeparator is not used.
-     * @throws IllegalArgumentException The provided lineSeparator included
-     *                                  some base64 characters.  That's not going to work!
-     */
-    public Base64(int lineLength, byte[] lineSeparator) {
-        this.lineLength = lineLength;
-        this.lineSeparator = new byte[lineSeparator.length];
-        System.arraycopy(lineSeparator, 0, this.lineSeparator, 0, lineSeparator.length);
-        if (lineLength > 0) {
-            this.encodeSize = 4 + lineSeparator.length;
-        } else {
-            this.encodeSize = 4;
+    private static final char PAD = '=';
+
+    /** The value of each ASCII character, or -1 if it's not in the alphabet. */
+    private static final byte[] DECODE = new byte[128];
+    static {
+        for (int c = 0; c < DECODE.length; ++c) {
+            DECODE[c] = -1;
         }
-        this.decodeSize = encodeSize - 1;
-        if (containsBase64Byte(lineSeparator)) {
-            String sep;
-            try {
-                sep = new String(lineSeparator, "UTF-8");
-            } catch (UnsupportedEncodingException uee) {
-                sep = new String(lineSeparator);
-            }
-            throw new IllegalArgumentException("lineSeperator must not contain base64 characters: [" + sep + "]");
+        for (int i = 0; i < ENCODE.length; ++i) {
+            DECODE[ENCODE[i]] = (byte) i;
         }
     }
 
-    /**
-     * Returns true if this Base64 object has buffered data for reading.
-     *
-     * @return true if there is Base64 object still available for reading.
-     */
-    boolean hasData() { return buf != null; }
-
-    /**
-     * Returns the amount of buffered data available for reading.
-     *
-     * @return The amount of buffered data available for reading.
-     */
-    int avail() { return buf != null ? pos - readPos : 0; }
-
-    /** Doubles our buffer. */
-    private void resizeBuf() {
-        if (buf == null) {
-            buf = new byte[8192];
-            pos = 0;
-            readPos = 0;
-        } else {
-            byte[] b = new byte[buf.length * 2];
-            System.arraycopy(buf, 0, b, 0, buf.length);
-            buf = b;
-        }
+    /** The number of characters needed to encode the given number of bytes. */
+    static int encodedLength(int length) {
+        return ((length + 2) / 3) * 4;
     }
 
     /**
-     * Extracts buffered data into the provided byte[] array, starting
-     * at position bPos, up to a maximum of bAvail bytes.  Returns how
-     * many bytes were actually extracted.
+     * Encode the given bytes into the given array.
      *
-     * @param b      byte[] array to extract the buffered data into.
-     * @param bPos   position in byte[] array to start extraction at.
-     * @param bAvail amount of bytes we're allowed to extract.  We may extract
-     *               fewer (if fewer are available).
-     * @return The number of bytes successfully extracted into the provided
-     *         byte[] array.
-     */
-    int readResults(byte[] b, int bPos, int bAvail) {
-        if (buf != null) {
-            int len = Math.min(avail(), bAvail);
-            if (buf != b) {
-                System.arraycopy(buf, readPos, b, bPos, len);
-                readPos += len;
-                if (readPos >= pos) {
-                    buf = null;
-                }
-            } else {
-                // Re-using the original consumer's output array is only
-                // allowed for one round.
-                buf = null;
+     * @return the number of characters written, which is
+     *         encodedLength(length)
+     */
+    static int encode(byte[] data, int offset, int length, char[] into, int at) {
+        final int start = at;
+        final int end = offset + length;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            int bits = ((data[i] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i + 2] & 0xFF);
+            into[at++] = ENCODE[bits >>> 18];
+            into[at++] = ENCODE[(bits >>> 12) & 0x3F];
+            into[at++] = ENCODE[(bits >>> 6) & 0x3F];
+            into[at++] = ENCODE[bits & 0x3F];
+        }
+        if (i < end) {
+            int bits = (data[i] & 0xFF) << 16;
+            if (i + 1 < end) {
+                bits |= (data[i + 1] & 0xFF) << 8;
             }
-            return len;
-        } else {
-            return eof ? -1 : 0;
+            into[at++] = ENCODE[bits >>> 18];
+            into[at++] = ENCODE[(bits >>> 12) & 0x3F];
+            into[at++] = (i + 1 < end) ? ENCODE[(bits >>> 6) & 0x3F] : PAD;
+            into[at++] = PAD;
         }
+        return at - start;
     }
 
     /**
-     * Small optimization where we try to buffer directly to the consumer's
-     * output array for one round (if consumer calls this method first!) instead
-     * of starting our own buffer.
+     * Encode the given bytes into the given array, as ASCII.
      *
-     * @param out byte[] array to buffer directly to.
-     * @param outPos Position to start buffering into.
-     * @param outAvail Amount of bytes available for direct buffering.
-     */
-    void setInitialBuffer(byte[] out, int outPos, int outAvail) {
-        // We can re-use consumer's original output array under
-        // special circumstances, saving on some System.arraycopy().
-        if (out != null && out.length == outAvail) {
-            buf = out;
-            pos = outPos;
-            readPos = outPos;
-        }
-    }
-
-    /**
-     * <p>
-     * Encodes all of the provided data, starting at inPos, for inAvail bytes.
-     * Must be called at least twice:  once with the data to encode, and once
-     * with inAvail set to "-1" to alert encoder that EOF has been reached,
-     * so flush last remaining bytes (if not multiple of 3).
-     * </p><p>
-     * Thanks to "commons" project in ws.apache.org for the bitwise operations,
-     * and general approach.
-     * http://svn.apache.org/repos/asf/webservices/commons/trunk/modules/util/
-     * </p>
-     *
-     * @param in byte[] array of binary data to base64 encode.
-     * @param inPos Position to start reading data from.
-     * @param inAvail Amount of bytes available from input for encoding.
-     */
-    void encode(byte[] in, int inPos, int inAvail) {
-        if (eof) {
-            return;
-        }
-
-        // inAvail < 0 is how we're informed of EOF in the underlying data we're
-        // encoding.
-        if (inAvail < 0) {
-            eof = true;
-            if (buf == null || buf.length - pos < encodeSize) {
-                resizeBuf();
-            }
-            switch (modulus) {
-                case 1:
-                    buf[pos++] = intToBase64[(x >> 2) & MASK_6BITS];
-                    buf[pos++] = intToBase64[(x << 4) & MASK_6BITS];
-                    buf[pos++] = PAD;
-                    buf[pos++] = PAD;
-                    break;
-
-                case 2:
-                    buf[pos++] = intToBase64[(x >> 10) & MASK_6BITS];
-                    buf[pos++] = intToBase64[(x >> 4) & MASK_6BITS];
-                    buf[pos++] = intToBase64[(x << 2) & MASK_6BITS];
-                    buf[pos++] = PAD;
-                    break;
+     * @return the number of bytes written, which is encodedLength(length)
+     */
+    static int encode(byte[] data, int offset, int length, byte[] into, int at) {
+        final int start = at;
+        final int end = offset + length;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            int bits = ((data[i] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i + 2] & 0xFF);
+            into[at++] = (byte) ENCODE[bits >>> 18];
+            into[at++] = (byte) ENCODE[(bits >>> 12) & 0x3F];
+            into[at++] = (byte) ENCODE[(bits >>> 6) & 0x3F];
+            into[at++] = (byte) ENCODE[bits & 0x3F];
+        }
+        if (i < end) {
+            int bits = (data[i] & 0xFF) << 16;
+            if (i + 1 < end) {
+                bits |= (data[i + 1] & 0xFF) << 8;
             }
-            if (lineLength > 0) {
-                System.arraycopy(lineSeparator, 0, buf, pos, lineSeparator.length);
-                pos += lineSeparator.length;
-            }
-        } else {
-            for (int i = 0; i < inAvail; i++) {
-                if (buf == null || buf.length - pos < encodeSize) {
-                    resizeBuf();
-                }
-                modulus = (++modulus) % 3;
-                int b = in[inPos++];
-                if (b < 0) { b += 256; }
-                x = (x << 8) + b;
-                if (0 == modulus) {
-                    buf[pos++] = intToBase64[(x >> 18) & MASK_6BITS];
-                    buf[pos++] = intToBase64[(x >> 12) & MASK_6BITS];
-                    buf[pos++] = intToBase64[(x >> 6) & MASK_6BITS];
-                    buf[pos++] = intToBase64[x & MASK_6BITS];
-                    currentLinePos += 4;
-                    if (lineLength > 0 && lineLength <= currentLinePos) {
-                        System.arraycopy(lineSeparator, 0, buf, pos, lineSeparator.length);
-                        pos += lineSeparator.length;
-                        currentLinePos = 0;
-                    }
-                }
+            into[at++] = (byte) ENCODE[bits >>> 18];
+            into[at++] = (byte) ENCODE[(bits >>> 12) & 0x3F];
+            into[at++] = (byte) ((i + 1 < end) ? ENCODE[(bits >>> 6) & 0x3F] : PAD);
+            into[at++] = (byte) PAD;
+        }
+        return at - start;
+    }
+
+    /** Append the encoding of the given bytes. */
+    static void encode(byte[] data, int offset, int length, Appendable into) throws IOException {
+        final char[] chars = new char[4];
+        final int end = offset + length;
+        for (int i = offset; i < end; i += 3) {
+            encode(data, i, Math.min(3, end - i), chars, 0);
+            for (char c : chars) {
+                into.append(c);
             }
         }
     }
 
-    /**
-     * <p>
-     * Decodes all of the provided data, starting at inPos, for inAvail bytes.
-     * Should be called at least twice:  once with the data to decode, and once
-     * with inAvail set to "-1" to alert decoder that EOF has been reached.
-     * The "-1" call is not necessary when decoding, but it doesn't hurt, either.
-     * </p><p>
-     * Ignores all non-base64 characters.  This is how chunked (e.g. 76 character)
-     * data is handled, since CR and LF are silently ignored, but has implications
-     * for other bytes, too.  This method subscribes to the garbage-in, garbage-out
-     * philosophy:  it will not check the provided data for validity.
-     * </p><p>
-     * Thanks to "commons" project in ws.apache.org for the bitwise operations,
-     * and general approach.
-     * http://svn.apache.org/repos/asf/webservices/commons/trunk/modules/util/
-     * </p>
-
-     * @param in byte[] array of ascii data to base64 decode.
-     * @param inPos Position to start reading data from.
-     * @param inAvail Amount of bytes available from input for encoding.
-     */    
-    void decode(byte[] in, int inPos, int inAvail) {
-        if (eof) {
-            return;
-        }
-        if (inAvail < 0) {
-            eof = true;
-        }
-        for (int i = 0; i < inAvail; i++) {
-            if (buf == null || buf.length - pos < decodeSize) {
-                resizeBuf();
-            }
-            byte b = in[inPos++];
-            if (b == PAD) {
-                x = x << 6;
-                switch (modulus) {
-                    case 2:
-                        x = x << 6;
-                        buf[pos++] = (byte) ((x >> 16) & MASK_8BITS);
-                        break;
-                    case 3:
-                        buf[pos++] = (byte) ((x >> 16) & MASK_8BITS);
-                        buf[pos++] = (byte) ((x >> 8) & MASK_8BITS);
-                        break;
-                }
-                // WE'RE DONE!!!!
-                eof = true;
-                return;
-            } else {
-                if (b >= 0 && b < base64ToInt.length) {
-                    int result = base64ToInt[b];
-                    if (result >= 0) {
-                        modulus = (++modulus) % 4;
-                        x = (x << 6) + result;
-                        if (modulus == 0) {
-                            buf[pos++] = (byte) ((x >> 16) & MASK_8BITS);
-                            buf[pos++] = (byte) ((x >> 8) & MASK_8BITS);
-                            buf[pos++] = (byte) (x & MASK_8BITS);
-                        }
-                    }
-                }
-            }
-        }
+    static String encode(byte[] data) {
+        char[] chars = new char[encodedLength(data.length)];
+        encode(data, 0, data.length, chars, 0);
+        return new String(chars);
     }
 
     /**
-     * Returns whether or not the <code>octet</code> is in the base 64 alphabet.
-     * 
-     * @param octet
-     *            The value to test
-     * @return <code>true</code> if the value is defined in the the base 64 alphabet, <code>false</code> otherwise.
+     * The maximum number of bytes that may be decoded from the given number
+     * of characters.
      */
-    public static boolean isBase64(byte octet) {
-        return octet == PAD || (octet >= 0 && octet < base64ToInt.length && base64ToInt[octet] != -1);
+    static int maxDecodedLength(int encodedLength) {
+        return (encodedLength / 4) * 3 + 2;
     }
 
     /**
-     * Tests a given byte array to see if it contains only valid characters within the Base64 alphabet.
-     * Currently the method treats whitespace as valid.
-     * 
-     * @param arrayOctet
-     *            byte array to test
-     * @return <code>true</code> if all bytes are valid characters in the Base64 alphabet or if the byte array is
-     *         empty; false, otherwise
-     */
-    public static boolean isArrayByteBase64(byte[] arrayOctet) {
-        for (int i = 0; i < arrayOctet.length; i++) {
-            if (!isBase64(arrayOctet[i]) && !isWhiteSpace(arrayOctet[i])) {
-                return false;
+     * Decode the given characters into the given array, which must have room
+     * for maxDecodedLength(encoded.length()) bytes.
+     *
+     * @return the number of bytes written
+     */
+    static int decode(CharSequence encoded, byte[] into, int at) {
+        final int start = at;
+        final int n = encoded.length();
+        int bits = 0;
+        int sextets = 0;
+        for (int i = 0; i < n; ++i) {
+            char c = encoded.charAt(i);
+            if (c == PAD) {
+                break;
             }
-        }
-        return true;
-    }
-
-    /*
-     * Tests a given byte array to see if it contains only valid characters within the Base64 alphabet.
-     * 
-     * @param arrayOctet
-     *            byte array to test
-     * @return <code>true</code> if any byte is a valid character in the Base64 alphabet; false herwise
-     */
-    private static boolean containsBase64Byte(byte[] arrayOctet) {
-        for (int i = 0; i < arrayOctet.length; i++) {
-            if (isBase64(arrayOctet[i])) {
-                return true;
+            int value = (c < DECODE.length) ? DECODE[c] : -1;
+            if (value >= 0) {
+                bits = (bits << 6) | value;
+                if (++sextets == 4) {
+                    into[at++] = (byte) (bits >> 16);
+                    into[at++] = (byte) (bits >> 8);
+                    into[at++] = (byte) bits;
+                    bits = 0;
+                    sextets = 0;
+                }
             }
         }
-        return false;
-    }
-
-    /**
-     * Encodes binary data using the base64 algorithm but does not chunk the output.
-     * 
-     * @param binaryData
-     *            binary data to encode
-     * @return Base64 characters
-     */
-    public static byte[] encodeBase64(byte[] binaryData) {
-        return encodeBase64(binaryData, false);
-    }
-
-    /**
-     * Encodes binary data using the base64 algorithm and chunks the encoded output into 76 character blocks
-     * 
-     * @param binaryData
-     *            binary data to encode
-     * @return Base64 characters chunked in 76 character blocks
-     */
-    public static byte[] encodeBase64Chunked(byte[] binaryData) {
-        return encodeBase64(binaryData, true);
-    }
-
-    /**
-     * Decodes a byte[] containing containing characters in the Base64 alphabet.
-     * 
-     * @param pArray
-     *            A byte array containing Base64 character data
-     * @return a byte array containing binary data
-     */
-    public byte[] decode(byte[] pArray) {
-        return decodeBase64(pArray);
-    }
-
-    /**
-     * Encodes binary data using the base64 algorithm, optionally chunking the output into 76 character blocks.
-     * 
-     * @param binaryData
-     *            Array containing binary data to encode.
-     * @param isChunked
-     *            if <code>true</code> this encoder will chunk the base64 output into 76 character blocks
-     * @return Base64-encoded data.
-     * @throws IllegalArgumentException
-     *             Thrown when the input array needs an output array bigger than {@link Integer#MAX_VALUE}
-     */
-    public static byte[] encodeBase64(byte[] binaryData, boolean isChunked) {
-        if (binaryData == null || binaryData.length == 0) {
-            return binaryData;
-        }
-        Base64 b64 = isChunked ? new Base64() : new Base64(0);
-
-        long len = (binaryData.length * 4) / 3;
-        long mod = len % 4;
-        if (mod != 0) {
-            len += 4 - mod;
-        }
-        if (isChunked) {
-            len += (1 + (len / CHUNK_SIZE)) * CHUNK_SEPARATOR.length;
-        }
-
-        if (len > Integer.MAX_VALUE) {
-            throw new IllegalArgumentException(
-                    "Input array too big, output array would be bigger than Integer.MAX_VALUE=" + Integer.MAX_VALUE);
-        }
-        byte[] buf = new byte[(int) len];
-        b64.setInitialBuffer(buf, 0, buf.length);
-        b64.encode(binaryData, 0, binaryData.length);
-        b64.encode(binaryData, 0, -1); // Notify encoder of EOF.
-
-        // Encoder might have resized, even though it was unnecessary.
-        if (b64.buf != buf) {
-            b64.readResults(buf, 0, buf.length);
-        }
-        return buf;
-    }
-
-    /**
-     * Decodes Base64 data into octets
-     *
-     * @param base64Data Byte array containing Base64 data
-     * @return Array containing decoded data.
-     */
-    public static byte[] decodeBase64(byte[] base64Data) {
-        if (base64Data == null || base64Data.length == 0) {
-            return base64Data;
+        if (sextets == 2) {
+            into[at++] = (byte) (bits >> 4);
+        } else if (sextets == 3) {
+            into[at++] = (byte) (bits >> 10);
+            into[at++] = (byte) (bits >> 2);
         }
-        Base64 b64 = new Base64();
-
-        long len = (base64Data.length * 3) / 4;
-        byte[] buf = new byte[(int) len];
-        b64.setInitialBuffer(buf, 0, buf.length);
-        b64.decode(base64Data, 0, base64Data.length);
-        b64.decode(base64Data, 0, -1); // Notify decoder of EOF.
-
-        // We have no idea what the line-length was, so we
-        // cannot know how much of our array wasn't used.
-        byte[] result = new byte[b64.pos];
-        b64.readResults(result, 0, result.length);
-        return result;
+        return at - start;
     }
 
-    /**
-     * Check if a byte value is whitespace or not.
-     * 
-     * @param byteToCheck the byte to check
-     * @return true if byte is whitespace, false otherwise
-     */
-    private static boolean isWhiteSpace(byte byteToCheck){
-        switch (byteToCheck) {
-        case ' ' :
-        case '\n' :
-        case '\r' :
-        case '\t' :
-            return true;
-        default :
-            return false;
+    static byte[] decode(CharSequence encoded) {
+        byte[] buffer = new byte[maxDecodedLength(encoded.length())];
+        int length = decode(encoded, buffer, 0);
+        if (length == buffer.length) {
+            return buffer;
         }
+        byte[] decoded = new byte[length];
+        System.arraycopy(buffer, 0, decoded, 0, length);
+        return decoded;
     }
 
     /**
-     * Discards any characters outside of the base64 alphabet, per the requirements on page 25 of RFC 2045 - "Any
-     * characters outside of the base64 alphabet are to be ignored in base64 encoded data."
-     * 
-     * @param data
-     *            The base-64 encoded data to groom
-     * @return The data, less non-base64 characters (see RFC 2045).
+     * Determine whether the given characters encode the given bytes, without
+     * allocating memory. Like OAuthSignatureMethod.equals, the time this takes
+     * doesn't depend on where the first difference is.
      */
-    static byte[] discardNonBase64(byte[] data) {
-        byte groomedData[] = new byte[data.length];
-        int bytesCopied = 0;
-
-        for (int i = 0; i < data.length; i++) {
-            if (isBase64(data[i])) {
-                groomedData[bytesCopied++] = data[i];
+    static boolean equals(byte[] data, int offset, int length, CharSequence encoded) {
+        final int n = encoded.length();
+        int diff = 0;
+        int j = 0; // the number of bytes decoded
+        int bits = 0;
+        int sextets = 0;
+        for (int i = 0; i < n; ++i) {
+            char c = encoded.charAt(i);
+            if (c == PAD) {
+                break;
+            }
+            int value = (c < DECODE.length) ? DECODE[c] : -1;
+            if (value >= 0) {
+                bits = (bits << 6) | value;
+                if (++sextets == 4) {
+                    diff |= compare(data, offset, length, j++, bits >> 16);
+                    diff |= compare(data, offset, length, j++, bits >> 8);
+                    diff |= compare(data, offset, length, j++, bits);
+                    bits = 0;
+                    sextets = 0;
+                }
             }
         }
-
-        byte packedData[] = new byte[bytesCopied];
-
-        System.arraycopy(groomedData, 0, packedData, 0, bytesCopied);
-
-        return packedData;
-    }
-
-    // Implementation of the Encoder Interface
-
-    /**
-     * Encodes a byte[] containing binary data, into a byte[] containing characters in the Base64 alphabet.
-     * 
-     * @param pArray
-     *            a byte array containing binary data
-     * @return A byte array containing only Base64 character data
-     */
-    public byte[] encode(byte[] pArray) {
-        return encodeBase64(pArray, false);
-    }
-
-    // Implementation of integer encoding used for crypto
-    /**
-     * Decode a byte64-encoded integer according to crypto
-     * standards such as W3C's XML-Signature
-     * 
-     * @param pArray a byte array containing base64 character data
-     * @return A BigInteger
-     */
-    public static BigInteger decodeInteger(byte[] pArray) {
-        return new BigInteger(1, decodeBase64(pArray));
-    }
-
-    /**
-     * Encode to a byte64-encoded integer according to crypto
-     * standards such as W3C's XML-Signature
-     * 
-     * @param bigInt a BigInteger
-     * @return A byte array containing base64 character data
-     * @throws NullPointerException if null is passed in
-     */
-    public static byte[] encodeInteger(BigInteger bigInt) {
-        if(bigInt == null)  {
-            throw new NullPointerException("encodeInteger called with null parameter");
+        if (sextets == 2) {
+            diff |= compare(data, offset, length, j++, bits >> 4);
+        } else if (sextets == 3) {
+            diff |= compare(data, offset, length, j++, bits >> 10);
+            diff |= compare(data, offset, length, j++, bits >> 2);
         }
-
-        return encodeBase64(toIntegerBytes(bigInt), false);
+        return (diff == 0) && (j == length);
     }
 
-    /**
-     * Returns a byte-array representation of a <code>BigInteger</code>
-     * without sign bit.
-     *
-     * @param bigInt <code>BigInteger</code> to be converted
-     * @return a byte array representation of the BigInteger parameter
-     */
-     static byte[] toIntegerBytes(BigInteger bigInt) {
-        int bitlen = bigInt.bitLength();
-        // round bitlen
-        bitlen = ((bitlen + 7) >> 3) << 3;
-        byte[] bigBytes = bigInt.toByteArray();
-
-        if(((bigInt.bitLength() % 8) != 0) &&
-            (((bigInt.bitLength() / 8) + 1) == (bitlen / 8))) {
-            return bigBytes;
-        }
-
-        // set up params for copying everything but sign bit
-        int startSrc = 0;
-        int len = bigBytes.length;
-
-        // if bigInt is exactly byte-aligned, just skip signbit in copy
-        if((bigInt.bitLength() % 8) == 0) {
-            startSrc = 1;
-            len--;
-        }
-
-        int startDst = bitlen / 8 - len; // to pad w/ nulls as per spec
-        byte[] resizedBytes = new byte[bitlen / 8];
-
-        System.arraycopy(bigBytes, startSrc, resizedBytes, startDst, len);
-
-        return resizedBytes;
+    /** @return 0 if data[offset + j] equals the low byte of decoded */
+    private static int compare(byte[] data, int offset, int length, int j, int decoded) {
+        return (j < length) ? ((data[offset + j] ^ decoded) & 0xFF) : 1;
     }
+
 }
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth.signature;
+
+/**
+ * A growable array of the bytes of a signature base string. A base string is
+ * percent-encoded, so every character is ASCII and occupies one byte.
+ * <p>
+ * Each thread reuses a buffer, to avoid allocating a new array for each
+ * message. Call {@link #acquire} to get one and {@link #release} when you're
+ * done with it.
+ */
+class BaseStringBuffer {
+
+    private BaseStringBuffer() {
+    }
+
+    private byte[] bytes = new byte[INITIAL_SIZE];
+    private int length = 0;
+
+    /** The bytes in the buffer; valid only until it's released. */
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /** Append the given ASCII character. */
+    void append(char c) {
+        ensureCapacity(length + 1);
+        bytes[length++] = (byte) c;
+    }
+
+    /** Append the given percent-encoded string. */
+    void append(String encoded) {
+        final int n = encoded.length();
+        ensureCapacity(length + n);
+        for (int i = 0; i < n; ++i) {
+            bytes[length++] = (byte) encoded.charAt(i);
+        }
+    }
+
+    /**
+     * Append the given percent-encoded string, percent-encoding it again. That
+     * is, each '%' is replaced by "%25", and the other characters (which are
+     * all unreserved) are appended as is.
+     */
+    void appendEncoded(String encoded) {
+        final int n = encoded.length();
+        ensureCapacity(length + n);
+        for (int i = 0; i < n; ++i) {
+            char c = encoded.charAt(i);
+            if (c == '%') {
+                ensureCapacity(length + (n - i) + 2);
+                bytes[length++] = '%';
+                bytes[length++] = '2';
+                bytes[length++] = '5';
+            } else {
+                bytes[length++] = (byte) c;
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            byte[] larger = new byte[Math.max(capacity, bytes.length * 2)];
+            System.arraycopy(bytes, 0, larger, 0, length);
+            bytes = larger;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toString(bytes, length);
+    }
+
+    /** Decode the given ASCII bytes. */
+    static String toString(byte[] ascii, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; ++i) {
+            chars[i] = (char) (ascii[i] & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    /** Get an empty buffer. */
+    static BaseStringBuffer acquire() {
+        BaseStringBuffer buffer = FREE.get();
+        if (buffer == null) {
+            return new BaseStringBuffer();
+        }
+        // A nested acquire (before this is released) gets a new buffer.
+        FREE.set(null);
+        return buffer;
+    }
+
+    /** Let the current thread reuse this buffer, unless it's grown large. */
+    void release() {
+        if (bytes.length <= MAX_RETAINED_SIZE) {
+            length = 0;
+            FREE.set(this);
+        }
+    }
+
+    private static final int INITIAL_SIZE = 512;
+
+    private static final int MAX_RETAINED_SIZE = 1 << 16;
+
+    private static final ThreadLocal<BaseStringBuffer> FREE = new ThreadLocal<BaseStringBuffer>();
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth.signature;
+
+import java.security.Security;
+
+/**
+ * The ED25519 signature method. It's used like {@link RSA_SHA1}, but with its
+ * own consumer properties:
+ * 
+ * <pre>
+ * c.setProperty(ED25519.PRIVATE_KEY, consumer_privateEd25519Key);
+ * </pre>
+ * 
+ * A private key may be PEM encoded as PKCS#8. The signature is the 64 bytes
+ * defined by RFC 8032, encoded in Base64.
+ * <p>
+ * This requires a security provider that implements Ed25519, which the JDK
+ * includes since version 15. This method is registered only if such a provider
+ * is installed.
+ */
+public class ED25519 extends PublicKeySignatureMethod {
+
+    final static public String PRIVATE_KEY = "ED25519.PrivateKey";
+    final static public String PUBLIC_KEY = "ED25519.PublicKey";
+    final static public String X509_CERTIFICATE = "ED25519.X509Certificate";
+
+    public ED25519() {
+        super("Ed25519", "Ed25519", PRIVATE_KEY, PUBLIC_KEY, X509_CERTIFICATE);
+    }
+
+    @Override
+    protected boolean isShareable() {
+        return getClass() == ED25519.class;
+    }
+
+    /** Whether an installed security provider implements Ed25519 signatures. */
+    public static boolean isAvailable() {
+        return Security.getAlgorithms("Signature").contains("ED25519");
+    }
+
+}
@@ -18,7 +18,6 @@ package net.oauth.signature;
 
 import java.io.UnsupportedEncodingException;
 import java.security.GeneralSecurityException;
-import java.util.Arrays;
 
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
@@ -28,12 +27,23 @@ import net.oauth.OAuth;
 import net.oauth.OAuthException;
 
 /**
- * The HMAC-SHA1 signature method.
+ * The HMAC-SHA1 signature method. Subclasses use other hash functions.
  * 
  * @author John Kristian
  */
 class HMAC_SHA1 extends OAuthSignatureMethod {
 
+    HMAC_SHA1() {
+        this("HmacSHA1");
+    }
+
+    /** @param macName the name of the Mac algorithm, for example HmacSHA256 */
+    HMAC_SHA1(String macName) {
+        this.macName = macName;
+    }
+
+    private final String macName;
+
     @Override
     protected String getSignature(String baseString) throws OAuthException {
         try {
@@ -51,8 +61,32 @@ class HMAC_SHA1 extends OAuthSignatureMethod {
     throws OAuthException {
         try {
             byte[] expected = computeSignature(baseString);
-            byte[] actual = decodeBase64(signature);
-            return equals(expected, actual);
+            return Base64.equals(expected, 0, expected.length, signature);
+        } catch (GeneralSecurityException e) {
+            throw new OAuthException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new OAuthException(e);
+        }
+    }
+
+    @Override
+    protected String getSignature(byte[] baseString, int length)
+            throws OAuthException {
+        try {
+            return base64Encode(computeSignature(baseString, length));
+        } catch (GeneralSecurityException e) {
+            throw new OAuthException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new OAuthException(e);
+        }
+    }
+
+    @Override
+    protected boolean isValid(String signature, byte[] baseString, int length)
+            throws OAuthException {
+        try {
+            byte[] expected = computeSignature(baseString, length);
+            return Base64.equals(expected, 0, expected.length, signature);
         } catch (GeneralSecurityException e) {
             throw new OAuthException(e);
         } catch (UnsupportedEncodingException e) {
@@ -62,43 +96,91 @@ class HMAC_SHA1 extends OAuthSignatureMethod {
 
     private byte[] computeSignature(String baseString)
             throws GeneralSecurityException, UnsupportedEncodingException {
-        SecretKey key = null;
-        synchronized (this) {
-            if (this.key == null) {
-                String keyString = OAuth.percentEncode(getConsumerSecret())
-                        + '&' + OAuth.percentEncode(getTokenSecret());
-                byte[] keyBytes = keyString.getBytes(ENCODING);
-                this.key = new SecretKeySpec(keyBytes, MAC_NAME);
-            }
-            key = this.key;
-        }
-        Mac mac = Mac.getInstance(MAC_NAME);
-        mac.init(key);
         byte[] text = baseString.getBytes(ENCODING);
-        return mac.doFinal(text);
+        return computeSignature(text, text.length);
+    }
+
+    private byte[] computeSignature(byte[] text, int length)
+            throws GeneralSecurityException, UnsupportedEncodingException {
+        Mac mac = getKeyState().newMac();
+        mac.update(text, 0, length);
+        return mac.doFinal();
+    }
+
+    private KeyState getKeyState() throws GeneralSecurityException,
+            UnsupportedEncodingException {
+        KeyState state = keyState;
+        if (state == null) {
+            // Concurrent threads might compute this redundantly, but they
+            // all get the same result.
+            String keyString = OAuth.percentEncode(getConsumerSecret()) + '&'
+                    + OAuth.percentEncode(getTokenSecret());
+            state = new KeyState(new SecretKeySpec(keyString.getBytes(ENCODING), macName));
+            keyState = state;
+        }
+        return state;
     }
 
     /** ISO-8859-1 or US-ASCII would work, too. */
     private static final String ENCODING = OAuth.ENCODING;
 
-    private static final String MAC_NAME = "HmacSHA1";
+    private volatile KeyState keyState = null;
+
+    /**
+     * A key and a Mac that was initialized with it. Initializing a Mac is
+     * relatively expensive (it looks up a provider and computes the padded
+     * key), so new Macs are cloned from the prototype, if the provider
+     * supports it. The prototype itself is never used, so it can be cloned
+     * by several threads concurrently.
+     */
+    private static class KeyState {
+
+        KeyState(SecretKey key) throws GeneralSecurityException {
+            this.key = key;
+            Mac mac = Mac.getInstance(key.getAlgorithm());
+            mac.init(key);
+            try {
+                mac = (Mac) mac.clone();
+            } catch (CloneNotSupportedException e) {
+                mac = null;
+            }
+            this.prototype = mac;
+        }
+
+        private final SecretKey key;
+
+        /** null if the provider doesn't support cloning */
+        private final Mac prototype;
 
-    private SecretKey key = null;
+        Mac newMac() throws GeneralSecurityException {
+            if (prototype != null) {
+                try {
+                    return (Mac) prototype.clone();
+                } catch (CloneNotSupportedException e) {
+                    // fall through
+                }
+            }
+            Mac mac = Mac.getInstance(key.getAlgorithm());
+            mac.init(key);
+            return mac;
+        }
+    }
 
     @Override
     public void setConsumerSecret(String consumerSecret) {
-        synchronized (this) {
-            key = null;
-        }
         super.setConsumerSecret(consumerSecret);
+        keyState = null;
     }
 
     @Override
     public void setTokenSecret(String tokenSecret) {
-        synchronized (this) {
-            key = null;
-        }
         super.setTokenSecret(tokenSecret);
+        keyState = null;
+    }
+
+    @Override
+    protected boolean isShareable() {
+        return true;
     }
 
 }
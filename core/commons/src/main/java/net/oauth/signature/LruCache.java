@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth.signature;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache, which evicts the least recently used entries. Entries may
+ * also expire a fixed time after they're added. The cache is divided into
+ * segments by hash code, each of which is guarded by its own lock; so
+ * concurrent threads rarely wait for each other.
+ */
+class LruCache<K, V> {
+
+    /**
+     * @param capacity
+     *            the maximum number of entries. Each segment holds an equal
+     *            share, so the least recently used entry overall isn't
+     *            necessarily the first to be evicted.
+     */
+    LruCache(int capacity) {
+        this(capacity, 0);
+    }
+
+    /**
+     * @param capacity
+     *            the maximum number of entries
+     * @param maxAge
+     *            the number of milliseconds after which an entry expires, or 0
+     *            if entries don't expire. An expired entry isn't returned by
+     *            get, and it's discarded when it's looked up or when another
+     *            entry is put into the same segment.
+     */
+    LruCache(int capacity, long maxAge) {
+        this.maxAge = maxAge;
+        int n = 1;
+        while (n < SEGMENTS && n * 8 < capacity) {
+            n <<= 1;
+        }
+        final int segmentCapacity = Math.max(1, (capacity + n - 1) / n);
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Segment<K, V>[] segments = new Segment[n];
+        for (int s = 0; s < n; ++s) {
+            segments[s] = new Segment<K, V>(segmentCapacity);
+        }
+        this.segments = segments;
+    }
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+
+    private final long maxAge;
+
+    /** @return the cached value, or null if there is none */
+    V get(K key) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            Timed<V> entry = segment.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired(System.currentTimeMillis())) {
+                segment.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+    void put(K key, V value) {
+        Segment<K, V> segment = getSegment(key);
+        final long now = System.currentTimeMillis();
+        synchronized (segment) {
+            if (maxAge > 0) {
+                segment.removeExpired(now);
+            }
+            segment.put(key, new Timed<V>(value, (maxAge > 0) ? now + maxAge : Long.MAX_VALUE));
+        }
+    }
+
+    void remove(K key) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment<K, V> getSegment(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    /** A cached value, and the time when it expires. */
+    private static class Timed<V> {
+
+        Timed(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+        final V value;
+        private final long expires;
+
+        boolean isExpired(long now) {
+            return now >= expires;
+        }
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, Timed<V>> {
+
+        Segment(int capacity) {
+            super(16, 0.75f, true); // access order
+            this.capacity = capacity;
+        }
+
+        private final int capacity;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Timed<V>> eldest) {
+            return size() > capacity;
+        }
+
+        void removeExpired(long now) {
+            for (Iterator<Timed<V>> i = values().iterator(); i.hasNext();) {
+                if (i.next().isExpired(now)) {
+                    i.remove();
+                }
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+}
@@ -17,7 +17,6 @@
 package net.oauth.signature;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -25,6 +24,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import net.oauth.OAuth;
 import net.oauth.OAuthAccessor;
@@ -63,32 +63,63 @@ public abstract class OAuthSignatureMethod {
     public void validate(OAuthMessage message)
     throws IOException, OAuthException, URISyntaxException {
         message.requireParameters("oauth_signature");
-        String signature = message.getSignature();
-        String baseString = getBaseString(message);
-        if (!isValid(signature, baseString)) {
-            OAuthProblemException problem = new OAuthProblemException(
-                    "signature_invalid");
-            problem.setParameter("oauth_signature", signature);
-            problem.setParameter("oauth_signature_base_string", baseString);
-            problem.setParameter("oauth_signature_method", message
-                    .getSignatureMethod());
-            throw problem;
+        validate(message, message.getSignature());
+    }
+
+    /**
+     * Check whether the given signature is valid for the message. This is
+     * like validate(OAuthMessage), for a caller that has already found the
+     * message's oauth_signature.
+     *
+     * @throws OAuthProblemException
+     *             the signature is invalid
+     */
+    public void validate(final OAuthMessage message, String signature)
+    throws IOException, OAuthException, URISyntaxException {
+        BaseStringBuffer baseString = BaseStringBuffer.acquire();
+        try {
+            writeBaseString(message, baseString);
+            if (!isValid(signature, baseString.getBytes(), baseString.length())) {
+                OAuthProblemException problem = OAuthProblemException
+                        .newRejection(OAuth.Problems.SIGNATURE_INVALID);
+                problem.setParameter("oauth_signature", signature);
+                // Keep the bytes, to construct the base string only if it's needed:
+                final byte[] bytes = new byte[baseString.length()];
+                System.arraycopy(baseString.getBytes(), 0, bytes, 0, bytes.length);
+                problem.setLazyParameter("oauth_signature_base_string", new Callable<String>() {
+                    public String call() {
+                        return BaseStringBuffer.toString(bytes, bytes.length);
+                    }
+                });
+                problem.setLazyParameter("oauth_signature_method", new Callable<String>() {
+                    public String call() throws Exception {
+                        return message.getSignatureMethod();
+                    }
+                });
+                throw problem;
+            }
+        } finally {
+            baseString.release();
         }
     }
 
     protected String getSignature(OAuthMessage message)
     throws OAuthException, IOException, URISyntaxException {
-        String baseString = getBaseString(message);
-        String signature = getSignature(baseString);
-        // Logger log = Logger.getLogger(getClass().getName());
-        // if (log.isLoggable(Level.FINE)) {
-        // log.fine(signature + "=getSignature(" + baseString + ")");
-        // }
-        return signature;
+        BaseStringBuffer baseString = BaseStringBuffer.acquire();
+        try {
+            writeBaseString(message, baseString);
+            return getSignature(baseString.getBytes(), baseString.length());
+        } finally {
+            baseString.release();
+        }
     }
 
     protected void initialize(String name, OAuthAccessor accessor)
             throws OAuthException {
+        setConsumerSecret(getConsumerSecret(name, accessor));
+    }
+
+    private static String getConsumerSecret(String name, OAuthAccessor accessor) {
         String secret = accessor.consumer.consumerSecret;
         if (name.endsWith(_ACCESSOR)) {
             // This code supports the 'Accessor Secret' extensions
@@ -105,9 +136,32 @@ public abstract class OAuthSignatureMethod {
         if (secret == null) {
             secret = "";
         }
-        setConsumerSecret(secret);
+        return secret;
     }
 
+    /**
+     * Whether this object may be shared by all messages that use the same
+     * signature method name, consumer, consumer secret and token secret. If so,
+     * it must be thread-safe, and its state must not depend on any other
+     * property of the accessor, except as checked by isCurrent. It won't be
+     * modified after it's shared.
+     */
+    protected boolean isShareable() {
+        return false;
+    }
+
+    /**
+     * Whether this shared object still agrees with the given accessor, whose
+     * consumer is the one this object was initialized with. For example, a
+     * subclass that gets a key from a consumer property can check whether the
+     * property was changed. If not, getSigner replaces this object.
+     */
+    protected boolean isCurrent(OAuthAccessor accessor) {
+        return true;
+    }
+
+    private boolean isShared = false;
+
     public static final String _ACCESSOR = "-Accessor";
 
     /** Compute the signature for the given base string. */
@@ -117,6 +171,28 @@ public abstract class OAuthSignatureMethod {
     protected abstract boolean isValid(String signature, String baseString)
             throws OAuthException;
 
+    /**
+     * Compute the signature for the given base string, which is the first
+     * <code>length</code> bytes of the given array, encoded in ASCII. The
+     * array is reused after this method returns. By default, this calls
+     * getSignature(String); a subclass can override this to avoid constructing
+     * the String.
+     */
+    protected String getSignature(byte[] baseString, int length)
+            throws OAuthException {
+        return getSignature(BaseStringBuffer.toString(baseString, length));
+    }
+
+    /**
+     * Decide whether the signature is valid for the given base string, which
+     * is the first <code>length</code> bytes of the given array, encoded in
+     * ASCII. By default, this calls isValid(String, String).
+     */
+    protected boolean isValid(String signature, byte[] baseString, int length)
+            throws OAuthException {
+        return isValid(signature, BaseStringBuffer.toString(baseString, length));
+    }
+
     private String consumerSecret;
 
     private String tokenSecret;
@@ -126,6 +202,7 @@ public abstract class OAuthSignatureMethod {
     }
 
     protected void setConsumerSecret(String consumerSecret) {
+        checkNotShared();
         this.consumerSecret = consumerSecret;
     }
 
@@ -134,11 +211,34 @@ public abstract class OAuthSignatureMethod {
     }
 
     public void setTokenSecret(String tokenSecret) {
+        checkNotShared();
         this.tokenSecret = tokenSecret;
     }
 
+    private void checkNotShared() {
+        if (isShared) {
+            throw new IllegalStateException(getClass().getName() + " is shared by several messages");
+        }
+    }
+
     public static String getBaseString(OAuthMessage message)
             throws IOException, URISyntaxException {
+        BaseStringBuffer baseString = BaseStringBuffer.acquire();
+        try {
+            writeBaseString(message, baseString);
+            return baseString.toString();
+        } finally {
+            baseString.release();
+        }
+    }
+
+    /**
+     * Append the base string of the given message to the given buffer. The
+     * parameters are percent-encoded twice as they're appended, rather than
+     * constructing the normalized parameter string and encoding it again.
+     */
+    private static void writeBaseString(OAuthMessage message,
+            BaseStringBuffer into) throws IOException, URISyntaxException {
         List<Map.Entry<String, String>> parameters;
         String url = message.URL;
         int q = url.indexOf('?');
@@ -151,12 +251,48 @@ public abstract class OAuthSignatureMethod {
             parameters.addAll(message.getParameters());
             url = url.substring(0, q);
         }
-        return OAuth.percentEncode(message.method.toUpperCase()) + '&'
-                + OAuth.percentEncode(normalizeUrl(url)) + '&'
-                + OAuth.percentEncode(normalizeParameters(parameters));
+        into.append(OAuth.percentEncode(message.method.toUpperCase()));
+        into.append('&');
+        into.append(OAuth.percentEncode(normalizeUrl(url)));
+        into.append('&');
+        boolean first = true;
+        for (ComparableParameter parameter : sortParameters(parameters)) {
+            if (first) {
+                first = false;
+            } else {
+                into.append("%26");
+            }
+            into.appendEncoded(parameter.encodedName);
+            into.append("%3D");
+            into.appendEncoded(parameter.encodedValue);
+        }
     }
 
+    /**
+     * Normalize the given URL, which has no query string, for a signature base
+     * string. The results are cached, since a provider or consumer typically
+     * uses a few URLs over and over.
+     */
     protected static String normalizeUrl(String url) throws URISyntaxException {
+        String normalized = NORMALIZED_URLS.get(url);
+        if (normalized == null) {
+            normalized = UrlNormalizer.normalize(url);
+            if (normalized == null) {
+                normalized = normalizeUri(url);
+            }
+            NORMALIZED_URLS.put(url, normalized);
+        }
+        return normalized;
+    }
+
+    /** The maximum number of cached normalized URLs. */
+    private static final int MAX_NORMALIZED_URLS = 1024;
+
+    private static final LruCache<String, String> NORMALIZED_URLS = new LruCache<String, String>(
+            MAX_NORMALIZED_URLS);
+
+    /** Normalize the given URL, using java.net.URI to parse it. */
+    static String normalizeUri(String url) throws URISyntaxException {
         URI uri = new URI(url);
         String scheme = uri.getScheme().toLowerCase();
         String authority = uri.getAuthority().toLowerCase();
@@ -182,15 +318,24 @@ public abstract class OAuthSignatureMethod {
         if (parameters == null) {
             return "";
         }
+        return OAuth.formEncode(getParameters(sortParameters(parameters)));
+    }
+
+    /** Sort the parameters, excluding oauth_signature. */
+    private static List<ComparableParameter> sortParameters(
+            Collection<? extends Map.Entry> parameters) {
+        if (parameters == null) {
+            return Collections.emptyList();
+        }
         List<ComparableParameter> p = new ArrayList<ComparableParameter>(
                 parameters.size());
-        for (Map.Entry parameter : parameters) {
+        for (Map.Entry<?, ?> parameter : parameters) {
             if (!"oauth_signature".equals(parameter.getKey())) {
                 p.add(new ComparableParameter(parameter));
             }
         }
         Collections.sort(p);
-        return OAuth.formEncode(getParameters(p));
+        return p;
     }
 
     /**
@@ -238,42 +383,131 @@ public abstract class OAuthSignatureMethod {
     }
 
     public static byte[] decodeBase64(String s) {
-	byte[] b;
-	try {
-	    b = s.getBytes(BASE64_ENCODING);
-	} catch (UnsupportedEncodingException e) {
-	    System.err.println(e + "");
-	    b = s.getBytes();
-	}
-	return BASE64.decode(b);
+        return Base64.decode(s);
     }
 
     public static String base64Encode(byte[] b) {
-	byte[] b2 = BASE64.encode(b);
-	try {
-	    return new String(b2, BASE64_ENCODING);
-	} catch (UnsupportedEncodingException e) {
-	    System.err.println(e + "");
-	}
-	return new String(b2);
+        return Base64.encode(b);
+    }
+
+    /** Construct an object to sign or validate the given message. */
+    public static OAuthSignatureMethod newSigner(OAuthMessage message,
+            OAuthAccessor accessor) throws IOException, OAuthException {
+        message.requireParameters(OAuth.OAUTH_SIGNATURE_METHOD);
+        return newSigner(message.getSignatureMethod(), accessor);
     }
 
     /**
-     * The character encoding used for base64. Arguably US-ASCII is more
-     * accurate, but this one decodes all byte values unambiguously.
+     * Construct an object to sign or validate messages with the given
+     * signature method.
      */
-    private static final String BASE64_ENCODING = "ISO-8859-1";
-    private static final Base64 BASE64 = new Base64();
+    public static OAuthSignatureMethod newSigner(String name,
+            OAuthAccessor accessor) throws OAuthException {
+        OAuthSignatureMethod signer = newMethod(name, accessor);
+        signer.setTokenSecret(accessor.tokenSecret);
+        return signer;
+    }
 
-    public static OAuthSignatureMethod newSigner(OAuthMessage message,
+    /**
+     * Get an object to sign or validate the given message. Unlike newSigner,
+     * this may return an object that's shared by other messages with the same
+     * signature method, consumer and secrets. It mustn't be modified.
+     */
+    public static OAuthSignatureMethod getSigner(OAuthMessage message,
             OAuthAccessor accessor) throws IOException, OAuthException {
         message.requireParameters(OAuth.OAUTH_SIGNATURE_METHOD);
-        OAuthSignatureMethod signer = newMethod(message.getSignatureMethod(),
-                accessor);
-        signer.setTokenSecret(accessor.tokenSecret);
+        return getSigner(message.getSignatureMethod(), accessor);
+    }
+
+    /**
+     * Get an object to sign or validate messages with the given signature
+     * method. Like getSigner(OAuthMessage, OAuthAccessor), it may be shared and
+     * mustn't be modified.
+     */
+    public static OAuthSignatureMethod getSigner(String name,
+            OAuthAccessor accessor) throws OAuthException {
+        final SignerKey key = new SignerKey(name, accessor);
+        OAuthSignatureMethod signer = SIGNERS.get(key);
+        if (signer == null || !signer.isCurrent(accessor)) {
+            signer = newSigner(name, accessor);
+            if (signer.isShareable()) {
+                signer.isShared = true;
+                SIGNERS.put(key, signer);
+            }
+        }
         return signer;
     }
 
+    /**
+     * Forget all the cached signers. Cached signers expire after
+     * SIGNER_LIFETIME anyway, and a signer that got a key from a consumer
+     * property is replaced when the property is set to a different object.
+     * But this is necessary to use a consumer whose key changed in place, or
+     * to release its secrets sooner.
+     */
+    public static void clearSigners() {
+        SIGNERS.clear();
+    }
+
+    /** The maximum number of cached signers. */
+    private static final int MAX_SIGNERS = 1024;
+
+    /**
+     * The number of milliseconds a signer is cached. This limits how long the
+     * cache retains token secrets that are no longer used.
+     */
+    public static final long SIGNER_LIFETIME = 5 * 60 * 1000L;
+
+    private static final LruCache<SignerKey, OAuthSignatureMethod> SIGNERS = new LruCache<SignerKey, OAuthSignatureMethod>(
+            MAX_SIGNERS, SIGNER_LIFETIME);
+
+    /**
+     * The properties that determine a shareable signer. The consumer is
+     * compared by identity, since its properties may contain keys.
+     */
+    private static class SignerKey {
+
+        SignerKey(String name, OAuthAccessor accessor) {
+            this.name = name;
+            this.consumer = accessor.consumer;
+            this.consumerSecret = getConsumerSecret(name, accessor);
+            this.tokenSecret = accessor.tokenSecret;
+            int h = (name == null) ? 0 : name.hashCode();
+            h = (31 * h) + System.identityHashCode(consumer);
+            h = (31 * h) + consumerSecret.hashCode();
+            h = (31 * h) + ((tokenSecret == null) ? 0 : tokenSecret.hashCode());
+            hashCode = h;
+        }
+
+        private final String name;
+        private final OAuthConsumer consumer;
+        private final String consumerSecret;
+        private final String tokenSecret;
+        private final int hashCode;
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof SignerKey))
+                return false;
+            final SignerKey that = (SignerKey) obj;
+            return hashCode == that.hashCode && consumer == that.consumer
+                    && equal(name, that.name)
+                    && consumerSecret.equals(that.consumerSecret)
+                    && equal(tokenSecret, that.tokenSecret);
+        }
+
+        private static boolean equal(String x, String y) {
+            return (x == null) ? (y == null) : x.equals(y);
+        }
+    }
+
     /** The factory for signature methods. */
     public static OAuthSignatureMethod newMethod(String name,
             OAuthAccessor accessor) throws OAuthException {
@@ -301,13 +535,16 @@ public abstract class OAuthSignatureMethod {
 
     /**
      * Subsequently, newMethod(name) will attempt to instantiate the given
-     * class, with no constructor parameters.
+     * class, with no constructor parameters. If instances of the class are
+     * shareable, getSigner will reuse them.
      */
     public static void registerMethodClass(String name, Class clazz) {
         if (clazz == null)
             unregisterMethod(name);
-        else
+        else {
             NAME_TO_CLASS.put(name, clazz);
+            clearSigners();
+        }
     }
 
     /**
@@ -315,6 +552,7 @@ public abstract class OAuthSignatureMethod {
      */
     public static void unregisterMethod(String name) {
         NAME_TO_CLASS.remove(name);
+        clearSigners();
     }
 
     private static final Map<String, Class> NAME_TO_CLASS = new ConcurrentHashMap<String, Class>();
@@ -322,38 +560,48 @@ public abstract class OAuthSignatureMethod {
         registerMethodClass("HMAC-SHA1", HMAC_SHA1.class);
         registerMethodClass("PLAINTEXT", PLAINTEXT.class);
         registerMethodClass("RSA-SHA1", RSA_SHA1.class);
+        registerMethodClass("HMAC-SHA256", HMAC_SHA256.class);
+        registerMethodClass("RSA-SHA256", RSA_SHA256.class);
+        registerMethodClass("ECDSA-SHA256", ECDSA_SHA256.class);
+        if (ED25519.isAvailable()) {
+            registerMethodClass("ED25519", ED25519.class);
+        }
         registerMethodClass("HMAC-SHA1" + _ACCESSOR, HMAC_SHA1.class);
+        registerMethodClass("HMAC-SHA256" + _ACCESSOR, HMAC_SHA256.class);
         registerMethodClass("PLAINTEXT" + _ACCESSOR, PLAINTEXT.class);
     }
 
     /** An efficiently sortable wrapper around a parameter. */
-    private static class ComparableParameter implements
+    static class ComparableParameter implements
             Comparable<ComparableParameter> {
 
-        ComparableParameter(Map.Entry value) {
+        ComparableParameter(Map.Entry<?, ?> value) {
             this.value = value;
-            String n = toString(value.getKey());
-            String v = toString(value.getValue());
-            this.key = OAuth.percentEncode(n) + ' ' + OAuth.percentEncode(v);
-            // ' ' is used because it comes before any character
-            // that can appear in a percentEncoded string.
+            this.encodedName = OAuth.percentEncodeKey(value);
+            this.encodedValue = OAuth.percentEncodeValue(value);
         }
 
-        final Map.Entry value;
+        final Map.Entry<?, ?> value;
 
-        private final String key;
-
-        private static String toString(Object from) {
-            return (from == null) ? null : from.toString();
-        }
+        /** The percent-encoded name and value */
+        final String encodedName, encodedValue;
 
+        /**
+         * Compare by name and then by value; the same order as comparing
+         * name + ' ' + value, since ' ' comes before any character that can
+         * appear in a percentEncoded string.
+         */
         public int compareTo(ComparableParameter that) {
-            return this.key.compareTo(that.key);
+            int diff = this.encodedName.compareTo(that.encodedName);
+            if (diff == 0) {
+                diff = this.encodedValue.compareTo(that.encodedValue);
+            }
+            return diff;
         }
 
         @Override
         public String toString() {
-            return key;
+            return encodedName + ' ' + encodedValue;
         }
 
     }
@@ -37,30 +37,50 @@ class PLAINTEXT extends OAuthSignatureMethod {
         return equals(getSignature(), signature);
     }
 
-    private synchronized String getSignature() {
-        if (signature == null) {
-            signature = OAuth.percentEncode(getConsumerSecret()) + '&'
-                    + OAuth.percentEncode(getTokenSecret());
+    /** The base string is irrelevant, so don't decode it. */
+    @Override
+    protected String getSignature(byte[] baseString, int length) {
+        return getSignature();
+    }
+
+    @Override
+    protected boolean isValid(String signature, byte[] baseString, int length) {
+        return equals(getSignature(), signature);
+    }
+
+    private String getSignature() {
+        String s = signature;
+        if (s == null) { // The secrets were never set. Computing it twice is harmless.
+            signature = s = newSignature();
         }
-        return signature;
+        return s;
     }
 
-    private String signature = null;
+    private String newSignature() {
+        return OAuth.percentEncode(getConsumerSecret()) + '&' + OAuth.percentEncode(getTokenSecret());
+    }
+
+    /**
+     * Computed whenever a secret is set. The secrets can't change once this
+     * signer is shared, so sharing threads read it without locking.
+     */
+    private volatile String signature = null;
 
     @Override
     public void setConsumerSecret(String consumerSecret) {
-        synchronized (this) {
-            signature = null;
-        }
         super.setConsumerSecret(consumerSecret);
+        signature = newSignature();
     }
 
     @Override
     public void setTokenSecret(String tokenSecret) {
-        synchronized (this) {
-            signature = null;
-        }
         super.setTokenSecret(tokenSecret);
+        signature = newSignature();
+    }
+
+    @Override
+    protected boolean isShareable() {
+        return true;
     }
 
 }
@@ -0,0 +1,526 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth.signature;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.EncodedKeySpec;
+import java.security.spec.KeySpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.oauth.OAuth;
+import net.oauth.OAuthAccessor;
+import net.oauth.OAuthConsumer;
+import net.oauth.OAuthException;
+import net.oauth.signature.pem.PEMReader;
+import net.oauth.signature.pem.PKCS1EncodedKeySpec;
+import net.oauth.signature.pem.SEC1EncodedKeySpec;
+
+/**
+ * A signature method that signs with a private key and verifies with a public
+ * key, using a java.security.Signature algorithm. The keys are consumer
+ * properties; see {@link RSA_SHA1} for the types of values they may have. A
+ * private key may be PEM encoded as PKCS#8, or as PKCS#1 for RSA or SEC1 for
+ * EC keys.
+ * <p>
+ * Keys parsed from a String or byte[] are cached, so the same property value
+ * is parsed only once. After changing the contents of a byte[] property, call
+ * forgetKeys or clearKeys to release the old key.
+ */
+public abstract class PublicKeySignatureMethod extends OAuthSignatureMethod {
+
+    /**
+     * @param algorithm
+     *            the name of the java.security.Signature algorithm, for
+     *            example SHA256withRSA
+     * @param keyAlgorithm
+     *            the name of the java.security.KeyFactory algorithm, for
+     *            example RSA
+     * @param privateKeyProperty
+     *            the name of the consumer property that contains the private
+     *            key
+     * @param publicKeyProperty
+     *            the name of the consumer property that contains the public
+     *            key
+     * @param certificateProperty
+     *            the name of the consumer property that contains an X509
+     *            certificate of the public key
+     */
+    protected PublicKeySignatureMethod(String algorithm, String keyAlgorithm,
+            String privateKeyProperty, String publicKeyProperty,
+            String certificateProperty) {
+        this.algorithm = algorithm;
+        this.keyAlgorithm = keyAlgorithm;
+        this.privateKeyProperty = privateKeyProperty;
+        this.publicKeyProperty = publicKeyProperty;
+        this.certificateProperty = certificateProperty;
+        addKeyProperty(privateKeyProperty);
+        addKeyProperty(publicKeyProperty);
+        addKeyProperty(certificateProperty);
+    }
+
+    private final String algorithm;
+    private final String keyAlgorithm;
+    private final String privateKeyProperty;
+    private final String publicKeyProperty;
+    private final String certificateProperty;
+    private PrivateKey privateKey = null;
+    private PublicKey publicKey = null;
+    private SignaturePool signers = null;
+    private SignaturePool verifiers = null;
+
+    /** The consumer properties from which the keys were loaded. */
+    private Object privateKeyObject;
+    private Object publicKeyObject;
+    private Object certObject;
+    
+    @Override
+    protected void initialize(String name, OAuthAccessor accessor)
+    throws OAuthException {
+        super.initialize(name, accessor);
+
+        // Due to the support of PEM input stream, the keys must be cached. 
+        // The stream may not be markable so it can't be read again.
+        try {
+            privateKeyObject = accessor.consumer.getProperty(privateKeyProperty);
+            if (privateKeyObject != null) {
+                privateKey = loadPrivateKey(privateKeyObject);
+            }
+
+            publicKeyObject = accessor.consumer.getProperty(publicKeyProperty);
+            if (publicKeyObject != null) {
+                publicKey = loadPublicKey(publicKeyObject, false);
+            } else {  // public key was null. perhaps they gave us a X509 cert.
+                certObject = accessor.consumer.getProperty(certificateProperty);
+                if (certObject != null) {
+                    publicKey = loadPublicKey(certObject, true);
+                }
+            }
+        } catch (GeneralSecurityException e) {
+            throw new OAuthException(e);
+        } catch (IOException e) {
+            throw new OAuthException(e);
+        }
+        if (privateKey != null) {
+            signers = new SignaturePool(algorithm, privateKey);
+        }
+        if (publicKey != null) {
+            verifiers = new SignaturePool(algorithm, publicKey);
+        }
+    }
+
+    /** Whether the consumer's key properties are the ones this was initialized with. */
+    @Override
+    protected boolean isCurrent(OAuthAccessor accessor) {
+        OAuthConsumer consumer = accessor.consumer;
+        if (consumer.getProperty(privateKeyProperty) != privateKeyObject
+                || consumer.getProperty(publicKeyProperty) != publicKeyObject) {
+            return false;
+        }
+        return publicKeyObject != null
+                || consumer.getProperty(certificateProperty) == certObject;
+    }
+
+    private PublicKey getPublicKeyFromDerCert(byte[] certObject)
+            throws GeneralSecurityException {
+        CertificateFactory fac = CertificateFactory.getInstance("X509");
+        ByteArrayInputStream in = new ByteArrayInputStream(certObject);
+        X509Certificate cert = (X509Certificate)fac.generateCertificate(in);
+        return cert.getPublicKey();
+    }
+
+    private PublicKey getPublicKeyFromDer(byte[] publicKeyObject)
+            throws GeneralSecurityException {
+        KeyFactory fac = KeyFactory.getInstance(keyAlgorithm);
+        EncodedKeySpec pubKeySpec = new X509EncodedKeySpec(publicKeyObject);
+        return fac.generatePublic(pubKeySpec);
+    }
+
+    private PublicKey getPublicKeyFromPem(String pem) 
+    throws GeneralSecurityException, IOException {
+
+        InputStream stream = new ByteArrayInputStream(
+                pem.getBytes("UTF-8"));
+
+        PEMReader reader = new PEMReader(stream);
+        byte[] bytes = reader.getDerBytes(); 	
+        PublicKey pubKey;
+
+        if (PEMReader.PUBLIC_X509_MARKER.equals(reader.getBeginMarker())) {
+            KeySpec keySpec = new X509EncodedKeySpec(bytes);
+            KeyFactory fac = KeyFactory.getInstance(keyAlgorithm);
+            pubKey = fac.generatePublic(keySpec);
+        } else if (PEMReader.CERTIFICATE_X509_MARKER.equals(reader.getBeginMarker())) {
+            pubKey = getPublicKeyFromDerCert(bytes);
+        } else {
+            throw new IOException("Invalid PEM fileL: Unknown marker for " + 
+                    " public key or cert " + reader.getBeginMarker());
+        }
+
+        return pubKey;
+    }
+
+    private PrivateKey getPrivateKeyFromDer(byte[] privateKeyObject)
+            throws GeneralSecurityException {
+        KeyFactory fac = KeyFactory.getInstance(keyAlgorithm);
+        EncodedKeySpec privKeySpec = new PKCS8EncodedKeySpec(privateKeyObject);
+        return fac.generatePrivate(privKeySpec);
+    }
+
+    private PrivateKey getPrivateKeyFromPem(String pem)
+    throws GeneralSecurityException, IOException {
+
+        InputStream stream = new ByteArrayInputStream(
+                pem.getBytes("UTF-8"));
+
+        PEMReader reader = new PEMReader(stream);
+        byte[] bytes = reader.getDerBytes();
+        KeySpec keySpec;
+
+        if (PEMReader.PRIVATE_PKCS1_MARKER.equals(reader.getBeginMarker())
+                && "RSA".equals(keyAlgorithm)) {
+            keySpec = (new PKCS1EncodedKeySpec(bytes)).getKeySpec();
+        } else if (PEMReader.PRIVATE_EC_MARKER.equals(reader.getBeginMarker())
+                && "EC".equals(keyAlgorithm)) {
+            keySpec = (new SEC1EncodedKeySpec(bytes)).getKeySpec();
+        } else if (PEMReader.PRIVATE_PKCS8_MARKER.equals(reader.getBeginMarker())) {
+            keySpec = new PKCS8EncodedKeySpec(bytes);
+        } else {
+            throw new IOException("Invalid PEM file: Unknown marker " +
+                    "for private key " + reader.getBeginMarker());
+        }
+
+        KeyFactory fac = KeyFactory.getInstance(keyAlgorithm);
+        return fac.generatePrivate(keySpec);
+    }
+
+    @Override
+    protected String getSignature(String baseString) throws OAuthException {
+        try {
+            byte[] signature = sign(baseString.getBytes(OAuth.ENCODING));
+            return base64Encode(signature);
+        } catch (UnsupportedEncodingException e) {
+            throw new OAuthException(e);
+        } catch (GeneralSecurityException e) {
+            throw new OAuthException(e);
+        }
+    }
+
+    @Override
+    protected boolean isValid(String signature, String baseString)
+            throws OAuthException {
+        try {
+            byte[] message = baseString.getBytes(OAuth.ENCODING);
+            return verify(signature, message, message.length);
+        } catch (UnsupportedEncodingException e) {
+            throw new OAuthException(e);
+        } catch (GeneralSecurityException e) {
+            throw new OAuthException(e);
+        }
+    }
+
+    @Override
+    protected String getSignature(byte[] baseString, int length)
+            throws OAuthException {
+        try {
+            return base64Encode(sign(baseString, length));
+        } catch (GeneralSecurityException e) {
+            throw new OAuthException(e);
+        }
+    }
+
+    @Override
+    protected boolean isValid(String signature, byte[] baseString, int length)
+            throws OAuthException {
+        try {
+            return verify(signature, baseString, length);
+        } catch (GeneralSecurityException e) {
+            throw new OAuthException(e);
+        }
+    }
+
+    private byte[] sign(byte[] message) throws GeneralSecurityException {
+        return sign(message, message.length);
+    }
+
+    private byte[] sign(byte[] message, int length) throws GeneralSecurityException {
+        if (signers == null) {
+            throw new IllegalStateException("need to set private key with " +
+                                            "OAuthConsumer.setProperty when " +
+                                            "generating " + algorithm + " signatures.");
+        }
+        return signers.sign(message, 0, length);
+    }
+
+    private boolean verify(String signature, byte[] message, int length)
+            throws GeneralSecurityException {
+        if (verifiers == null) {
+            throw new IllegalStateException("need to set public key with " +
+                                            " OAuthConsumer.setProperty when " +
+                                            "verifying " + algorithm + " signatures.");
+        }
+        // Decode the signature into a buffer that this thread reuses.
+        final int maxLength = Base64.maxDecodedLength(signature.length());
+        byte[] decoded = SIGNATURE_BUFFER.get();
+        if (decoded == null || decoded.length < maxLength) {
+            decoded = new byte[maxLength];
+            if (maxLength <= MAX_RETAINED_SIGNATURE) {
+                SIGNATURE_BUFFER.set(decoded);
+            }
+        }
+        int decodedLength = Base64.decode(signature, decoded, 0);
+        return verifiers.verify(decoded, decodedLength, message, 0, length);
+    }
+
+    /** The largest decoded signature buffer that a thread retains. */
+    private static final int MAX_RETAINED_SIGNATURE = 1 << 10;
+
+    private static final ThreadLocal<byte[]> SIGNATURE_BUFFER = new ThreadLocal<byte[]>();
+
+    /**
+     * Load private key from various sources, including
+     * <ul>
+     * <li>A PrivateKey object
+     * <li>A string buffer for PEM
+     * <li>A byte array with PKCS#8 encoded key
+     * </ul>
+     * @param privateKeyObject
+     * @return The private key
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    private PrivateKey loadPrivateKey(Object privateKeyObject) 
+    throws IOException, GeneralSecurityException {
+
+        PrivateKey privateKey;
+
+        if (privateKeyObject instanceof PrivateKey) {
+            privateKey = (PrivateKey)privateKeyObject;
+        } else {
+            final KeySource source = new KeySource(privateKeyProperty, privateKeyObject);
+            privateKey = (PrivateKey) KEYS.get(source);
+            if (privateKey == null) {
+                privateKey = parsePrivateKey(privateKeyObject);
+                KEYS.put(source.copy(), privateKey);
+            }
+        }
+
+        return privateKey;
+    }
+
+    private PrivateKey parsePrivateKey(Object privateKeyObject)
+    throws IOException, GeneralSecurityException {
+
+        PrivateKey privateKey;
+
+        if (privateKeyObject instanceof String) {
+            try {
+                // PEM Reader's native string constructor is for filename.
+                privateKey = getPrivateKeyFromPem((String)privateKeyObject);
+            } catch (IOException e) {
+                // Check if it's PEM with markers stripped
+                privateKey = getPrivateKeyFromDer(
+                        decodeBase64((String)privateKeyObject));
+            }
+        } else if (privateKeyObject instanceof byte[]) {
+            privateKey = getPrivateKeyFromDer((byte[])privateKeyObject);
+        } else {
+            throw new IllegalArgumentException(
+                    "Private key set through " + privateKeyProperty + " must be of " +
+                    "type PrivateKey, String or byte[] and not " +
+                    privateKeyObject.getClass().getName());
+        }
+
+        return privateKey;
+    }
+
+    /**
+     * Load a public key from key file or certificate. It can load from
+     * different sources depending on the type of the input,
+     * <ul>
+     * <li>A PublicKey object
+     * <li>A X509Certificate object
+     * <li>A string buffer for PEM
+     * <li>A byte array with X509 encoded key or certificate
+     * </ul>
+     * 
+     * @param publicKeyObject The object for public key or certificate
+     * @param isCert True if this object is provided as Certificate
+     * @return The public key
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    private PublicKey loadPublicKey(Object publicKeyObject, boolean isCert) 
+    throws IOException, GeneralSecurityException {
+
+        PublicKey publicKey;
+
+        if (publicKeyObject instanceof PublicKey) {
+            publicKey = (PublicKey)publicKeyObject;
+        } else if (publicKeyObject instanceof X509Certificate) {
+            publicKey = ((X509Certificate) publicKeyObject).getPublicKey();
+        } else {
+            final KeySource source = new KeySource(isCert ? certificateProperty : publicKeyProperty,
+                    publicKeyObject);
+            publicKey = (PublicKey) KEYS.get(source);
+            if (publicKey == null) {
+                publicKey = parsePublicKey(publicKeyObject, isCert);
+                KEYS.put(source.copy(), publicKey);
+            }
+        }
+
+        return publicKey;
+    }
+
+    private PublicKey parsePublicKey(Object publicKeyObject, boolean isCert)
+    throws IOException, GeneralSecurityException {
+
+        PublicKey publicKey;
+
+        if (publicKeyObject instanceof String) {
+            try {
+                publicKey = getPublicKeyFromPem((String)publicKeyObject);
+            } catch (IOException e) {
+                // Check if it's marker-stripped PEM for public key
+                if (isCert) 
+                    throw e;
+                publicKey = getPublicKeyFromDer(
+                        decodeBase64((String)publicKeyObject));
+            }
+        } else if (publicKeyObject instanceof byte[]) { 
+            if (isCert)
+                publicKey = getPublicKeyFromDerCert((byte[])publicKeyObject);
+            else
+                publicKey = getPublicKeyFromDer((byte[])publicKeyObject);
+        } else {
+            String source;
+            if (isCert)
+                source = certificateProperty;
+            else
+                source = publicKeyProperty;
+            throw new IllegalArgumentException(
+                    "Public key or certificate set through " + source + " must be of " +
+                    "type PublicKey, String or byte[], and not " +
+                    publicKeyObject.getClass().getName());
+        }
+
+        return publicKey;
+    }
+
+    /**
+     * Forget the keys that were parsed from the given consumer's properties.
+     * This is necessary to release the memory they occupy, or after changing
+     * the contents of a byte[] property. It also clears the cache of signers,
+     * which retain keys.
+     */
+    public static void forgetKeys(OAuthConsumer consumer) {
+        for (String name : KEY_PROPERTIES.keySet()) {
+            Object value = consumer.getProperty(name);
+            if (value != null) {
+                KEYS.remove(new KeySource(name, value));
+            }
+        }
+        clearSigners();
+    }
+
+    /** Forget all the keys that were parsed from consumer properties. */
+    public static void clearKeys() {
+        KEYS.clear();
+        clearSigners();
+    }
+
+    /** The names of all the consumer properties from which keys are parsed. */
+    private static final Map<String, Boolean> KEY_PROPERTIES = new ConcurrentHashMap<String, Boolean>();
+
+    private static void addKeyProperty(String name) {
+        if (!KEY_PROPERTIES.containsKey(name)) {
+            KEY_PROPERTIES.put(name, Boolean.TRUE);
+        }
+    }
+
+    /** The maximum number of cached keys. */
+    private static final int MAX_KEYS = 256;
+
+    /**
+     * Keys that were parsed from consumer properties. Parsing PEM, ASN.1 or a
+     * certificate is much slower than using the resulting key, and the same
+     * consumer properties are typically used for many messages.
+     */
+    private static final LruCache<KeySource, Object> KEYS = new LruCache<KeySource, Object>(MAX_KEYS);
+
+    /**
+     * The value of a consumer property from which a key is parsed, compared
+     * by content. A byte[] is copied before it's stored in the cache, so that
+     * later changes to the caller's array don't corrupt the cache.
+     */
+    private static class KeySource {
+
+        KeySource(String name, Object value) {
+            this.name = name;
+            this.value = value;
+            int h = name.hashCode() * 31;
+            if (value instanceof byte[]) {
+                h += Arrays.hashCode((byte[]) value);
+            } else {
+                h += value.hashCode();
+            }
+            this.hashCode = h;
+        }
+
+        private final String name;
+        private final Object value;
+        private final int hashCode;
+
+        KeySource copy() {
+            if (value instanceof byte[]) {
+                return new KeySource(name, ((byte[]) value).clone());
+            }
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof KeySource))
+                return false;
+            final KeySource that = (KeySource) obj;
+            if (hashCode != that.hashCode || !name.equals(that.name))
+                return false;
+            if (value instanceof byte[]) {
+                return (that.value instanceof byte[])
+                        && Arrays.equals((byte[]) value, (byte[]) that.value);
+            }
+            return value.equals(that.value);
+        }
+    }
+}
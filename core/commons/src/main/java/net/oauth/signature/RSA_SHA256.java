@@ -0,0 +1,33 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth.signature;
+
+/**
+ * The RSA-SHA256 signature method. It's the same as RSA-SHA1, except for the
+ * hash function; and it uses the same consumer properties, for example
+ * {@link RSA_SHA1#PRIVATE_KEY}.
+ */
+public class RSA_SHA256 extends RSA_SHA1 {
+
+    public RSA_SHA256() {
+        super("SHA256withRSA");
+    }
+
+    @Override
+    protected boolean isShareable() {
+        return getClass() == RSA_SHA256.class;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth.signature;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of Signature objects, all initialized with the same key. Getting a
+ * Signature from a provider and initializing it with a key is relatively
+ * expensive, so they are reused. A Signature is reset to its initialized
+ * state after it signs or verifies; if it throws an exception instead, it's
+ * discarded, since its state is unknown.
+ */
+class SignaturePool {
+
+    /** A pool of Signatures that sign with the given key. */
+    SignaturePool(String algorithm, PrivateKey privateKey) {
+        this.algorithm = algorithm;
+        this.privateKey = privateKey;
+        this.publicKey = null;
+    }
+
+    /** A pool of Signatures that verify with the given key. */
+    SignaturePool(String algorithm, PublicKey publicKey) {
+        this.algorithm = algorithm;
+        this.privateKey = null;
+        this.publicKey = publicKey;
+    }
+
+    private final String algorithm;
+    private final PrivateKey privateKey;
+    private final PublicKey publicKey;
+    private final ConcurrentLinkedQueue<Signature> idle = new ConcurrentLinkedQueue<Signature>();
+    /** The number of idle Signatures (which is expensive to get from the queue) */
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /** The maximum number of idle Signatures. */
+    private static final int MAX_IDLE = Math.min(16, 2 * Runtime.getRuntime().availableProcessors());
+
+    byte[] sign(byte[] data, int offset, int length)
+            throws GeneralSecurityException {
+        Signature signer = take();
+        signer.update(data, offset, length);
+        byte[] signature = signer.sign();
+        give(signer);
+        return signature;
+    }
+
+    /** Verify the first signatureLength bytes of signature. */
+    boolean verify(byte[] signature, int signatureLength, byte[] data, int offset, int length)
+            throws GeneralSecurityException {
+        Signature verifier = take();
+        verifier.update(data, offset, length);
+        boolean valid = verifier.verify(signature, 0, signatureLength);
+        give(verifier);
+        return valid;
+    }
+
+    private Signature take() throws GeneralSecurityException {
+        Signature signature = idle.poll();
+        if (signature != null) {
+            idleCount.decrementAndGet();
+            return signature;
+        }
+        signature = Signature.getInstance(algorithm);
+        if (privateKey != null) {
+            signature.initSign(privateKey);
+        } else {
+            signature.initVerify(publicKey);
+        }
+        return signature;
+    }
+
+    private void give(Signature signature) {
+        if (idleCount.incrementAndGet() <= MAX_IDLE) {
+            idle.offer(signature);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+}
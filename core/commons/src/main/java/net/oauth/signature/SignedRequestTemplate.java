@@ -0,0 +1,222 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth.signature;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import net.oauth.OAuth;
+import net.oauth.OAuthAccessor;
+import net.oauth.OAuthException;
+import net.oauth.OAuthMessage;
+
+/**
+ * A precomputed part of signed requests to the same URL with the same HTTP
+ * method and some of the same parameters. The URL is normalized and the
+ * static parameters are encoded and sorted once, when the template is
+ * constructed. Signing a request from the template merges the remaining
+ * parameters into the static ones as the base string is written, and then
+ * computes the signature.
+ * <p>
+ * A template is immutable, so it may be used by several threads at once.
+ */
+public class SignedRequestTemplate {
+
+    /**
+     * @param method
+     *            the HTTP request method, for example GET
+     * @param url
+     *            the request URL, which may contain a query string
+     * @param parameters
+     *            parameters that are the same in every request, which may
+     *            include oauth_signature_method. They don't include the
+     *            parameters in the query string.
+     */
+    public SignedRequestTemplate(String method, String url,
+            Collection<? extends Map.Entry<?, ?>> parameters)
+            throws URISyntaxException {
+        this.method = method;
+        this.url = url;
+        List<Map.Entry<?, ?>> staticParameters = new ArrayList<Map.Entry<?, ?>>();
+        String baseUrl = url;
+        int q = url.indexOf('?');
+        if (q >= 0) {
+            staticParameters.addAll(OAuth.decodeForm(url.substring(q + 1)));
+            baseUrl = url.substring(0, q);
+        }
+        List<OAuth.Parameter> messageParameters = new ArrayList<OAuth.Parameter>();
+        if (parameters != null) {
+            for (Map.Entry<?, ?> parameter : parameters) {
+                OAuth.Parameter p = new OAuth.Parameter(toString(parameter.getKey()),
+                        toString(parameter.getValue()));
+                if (OAuth.OAUTH_SIGNATURE.equals(p.getKey())) {
+                    continue;
+                }
+                staticParameters.add(p);
+                messageParameters.add(p);
+            }
+        }
+        this.messageParameters = messageParameters.toArray(new OAuth.Parameter[messageParameters.size()]);
+        this.baseStringPrefix = OAuth.percentEncode(method.toUpperCase()) + '&'
+                + OAuth.percentEncode(OAuthSignatureMethod.normalizeUrl(baseUrl)) + '&';
+        this.sortedParameters = new OAuthSignatureMethod.ComparableParameter[staticParameters.size()];
+        for (int p = 0; p < sortedParameters.length; ++p) {
+            sortedParameters[p] = new OAuthSignatureMethod.ComparableParameter(staticParameters.get(p));
+        }
+        Arrays.sort(sortedParameters);
+        Map<String, String> names = OAuth.newMap(staticParameters);
+        this.signatureMethod = names.get(OAuth.OAUTH_SIGNATURE_METHOD);
+        this.hasToken = names.containsKey(OAuth.OAUTH_TOKEN);
+        this.hasConsumerKey = names.containsKey(OAuth.OAUTH_CONSUMER_KEY);
+        this.hasVersion = names.containsKey(OAuth.OAUTH_VERSION);
+    }
+
+    private final String method;
+    private final String url;
+    /** The value of oauth_signature_method from the static parameters, or null. */
+    private final String signatureMethod;
+    /** The static parameters, excluding those in the query string. */
+    private final OAuth.Parameter[] messageParameters;
+    /** The method and URL, encoded as they are in the base string. */
+    private final String baseStringPrefix;
+    /** The static parameters, including those in the query string. */
+    private final OAuthSignatureMethod.ComparableParameter[] sortedParameters;
+    private final boolean hasToken;
+    private final boolean hasConsumerKey;
+    private final boolean hasVersion;
+
+    /**
+     * Construct a signed message from this template. The message contains the
+     * static parameters, the given parameters and oauth_signature. The OAuth
+     * parameters that are needed to access a protected resource are added if
+     * they aren't already present, like OAuthMessage.addRequiredParameters.
+     *
+     * @param parameters
+     *            parameters that vary from one request to another, or null
+     */
+    public OAuthMessage newMessage(OAuthAccessor accessor,
+            Collection<? extends Map.Entry<?, ?>> parameters) throws OAuthException {
+        // There's room for 6 required parameters and the signature:
+        List<Map.Entry<?, ?>> dynamic = new ArrayList<Map.Entry<?, ?>>(
+                messageParameters.length + ((parameters == null) ? 0 : parameters.size()) + 7);
+        for (OAuth.Parameter p : messageParameters) {
+            dynamic.add(p);
+        }
+        final int firstDynamic = dynamic.size();
+        String signatureMethod = this.signatureMethod;
+        boolean hasToken = this.hasToken;
+        boolean hasConsumerKey = this.hasConsumerKey;
+        boolean hasVersion = this.hasVersion;
+        boolean hasTimestamp = false;
+        boolean hasNonce = false;
+        if (parameters != null) {
+            for (Map.Entry<?, ?> parameter : parameters) {
+                String name = toString(parameter.getKey());
+                if (OAuth.OAUTH_SIGNATURE.equals(name)) {
+                    continue;
+                } else if (OAuth.OAUTH_SIGNATURE_METHOD.equals(name)) {
+                    if (signatureMethod == null) {
+                        signatureMethod = toString(parameter.getValue());
+                    }
+                } else if (OAuth.OAUTH_TOKEN.equals(name)) {
+                    hasToken = true;
+                } else if (OAuth.OAUTH_CONSUMER_KEY.equals(name)) {
+                    hasConsumerKey = true;
+                } else if (OAuth.OAUTH_VERSION.equals(name)) {
+                    hasVersion = true;
+                } else if (OAuth.OAUTH_TIMESTAMP.equals(name)) {
+                    hasTimestamp = true;
+                } else if (OAuth.OAUTH_NONCE.equals(name)) {
+                    hasNonce = true;
+                }
+                dynamic.add(parameter);
+            }
+        }
+        if (!hasToken && accessor.accessToken != null) {
+            dynamic.add(new OAuth.Parameter(OAuth.OAUTH_TOKEN, accessor.accessToken));
+        }
+        if (!hasConsumerKey) {
+            dynamic.add(new OAuth.Parameter(OAuth.OAUTH_CONSUMER_KEY, accessor.consumer.consumerKey));
+        }
+        if (signatureMethod == null) {
+            signatureMethod = (String) accessor.consumer.getProperty(OAuth.OAUTH_SIGNATURE_METHOD);
+            if (signatureMethod == null) {
+                signatureMethod = OAuth.HMAC_SHA1;
+            }
+            dynamic.add(new OAuth.Parameter(OAuth.OAUTH_SIGNATURE_METHOD, signatureMethod));
+        }
+        if (!hasTimestamp) {
+            dynamic.add(new OAuth.Parameter(OAuth.OAUTH_TIMESTAMP, (System.currentTimeMillis() / 1000) + ""));
+        }
+        if (!hasNonce) {
+            dynamic.add(new OAuth.Parameter(OAuth.OAUTH_NONCE, System.nanoTime() + ""));
+        }
+        if (!hasVersion) {
+            dynamic.add(new OAuth.Parameter(OAuth.OAUTH_VERSION, OAuth.VERSION_1_0));
+        }
+        final int dynamicCount = dynamic.size() - firstDynamic;
+        OAuthSignatureMethod.ComparableParameter[] sorted = new OAuthSignatureMethod.ComparableParameter[dynamicCount];
+        for (int p = 0; p < sorted.length; ++p) {
+            sorted[p] = new OAuthSignatureMethod.ComparableParameter(dynamic.get(firstDynamic + p));
+        }
+        Arrays.sort(sorted);
+        OAuthSignatureMethod signer = OAuthSignatureMethod.getSigner(signatureMethod, accessor);
+        String signature;
+        BaseStringBuffer baseString = BaseStringBuffer.acquire();
+        try {
+            baseString.append(baseStringPrefix);
+            merge(sortedParameters, sorted, baseString);
+            signature = signer.getSignature(baseString.getBytes(), baseString.length());
+        } finally {
+            baseString.release();
+        }
+        dynamic.add(new OAuth.Parameter(OAuth.OAUTH_SIGNATURE, signature));
+        // The message copies the parameters, so changing them doesn't change
+        // this template. The copies reuse the static parameters' encodings.
+        return new OAuthMessage(method, url, dynamic);
+    }
+
+    /**
+     * Append the normalized parameters from two sorted arrays, in order, each
+     * percent-encoded again.
+     */
+    private static void merge(OAuthSignatureMethod.ComparableParameter[] x,
+            OAuthSignatureMethod.ComparableParameter[] y, BaseStringBuffer into) {
+        int i = 0;
+        int j = 0;
+        while (i < x.length || j < y.length) {
+            OAuthSignatureMethod.ComparableParameter next;
+            if (j >= y.length || (i < x.length && x[i].compareTo(y[j]) <= 0)) {
+                next = x[i++];
+            } else {
+                next = y[j++];
+            }
+            if (i + j > 1) {
+                into.append("%26");
+            }
+            into.appendEncoded(next.encodedName);
+            into.append("%3D");
+            into.appendEncoded(next.encodedValue);
+        }
+    }
+
+    private static final String toString(Object from) {
+        return (from == null) ? null : from.toString();
+    }
+
+}
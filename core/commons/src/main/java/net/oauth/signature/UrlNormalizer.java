@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth.signature;
+
+/**
+ * Normalize common http and https URLs for a signature base string, without
+ * constructing a java.net.URI. Only URLs that java.net.URI would parse the
+ * same way are handled: a host name or IPv4 address, an optional port and a
+ * path of ASCII characters. For anything else (user information, an IPv6
+ * address, a query, a fragment, non-ASCII characters or anything unusual),
+ * {@link #normalize} returns null and the caller should use java.net.URI.
+ */
+class UrlNormalizer {
+
+    private UrlNormalizer() {
+    }
+
+    /**
+     * @return the normalized URL, or null if the given URL isn't simple
+     *         enough to normalize here.
+     */
+    static String normalize(String url) {
+        final int n = url.length();
+        final boolean https;
+        int p; // the start of the authority
+        if (url.regionMatches(true, 0, "http://", 0, 7)) {
+            https = false;
+            p = 7;
+        } else if (url.regionMatches(true, 0, "https://", 0, 8)) {
+            https = true;
+            p = 8;
+        } else {
+            return null;
+        }
+        final int hostStart = p;
+        int lastLabel = -1;
+        int labels = 0;
+        while (p < n) { // a label
+            if (!isAlphanumeric(url.charAt(p))) {
+                break;
+            }
+            lastLabel = p;
+            ++labels;
+            while (p < n && (isAlphanumeric(url.charAt(p)) || url.charAt(p) == '-')) {
+                ++p;
+            }
+            if (url.charAt(p - 1) == '-') {
+                return null;
+            }
+            if (p < n && url.charAt(p) == '.') {
+                ++p;
+            } else {
+                break;
+            }
+        }
+        final int hostEnd = p;
+        if (labels == 0) {
+            return null;
+        }
+        if (labels > 1 && !isLetter(url.charAt(lastLabel)) && !isIPv4(url, hostStart, hostEnd)) {
+            return null;
+        }
+        int port = -1;
+        if (p < n && url.charAt(p) == ':') {
+            int portStart = ++p;
+            while (p < n && isDigit(url.charAt(p))) {
+                ++p;
+            }
+            if (p == portStart || p - portStart > 5) {
+                return null;
+            }
+            port = Integer.parseInt(url.substring(portStart, p));
+        }
+        final int authorityEnd = p;
+        if (p < n && url.charAt(p) != '/') {
+            return null;
+        }
+        for (; p < n; ++p) {
+            char c = url.charAt(p);
+            if (c == '%') {
+                if (p + 2 >= n || !isHexDigit(url.charAt(p + 1)) || !isHexDigit(url.charAt(p + 2))) {
+                    return null;
+                }
+            } else if (c >= PATH.length || !PATH[c]) {
+                return null;
+            }
+        }
+        final boolean dropPort = port == (https ? 443 : 80);
+        StringBuilder normalized = new StringBuilder(n);
+        normalized.append(https ? "https://" : "http://");
+        for (int i = hostStart, end = dropPort ? hostEnd : authorityEnd; i < end; ++i) {
+            char c = url.charAt(i);
+            normalized.append((c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c);
+        }
+        if (authorityEnd < n) {
+            normalized.append(url, authorityEnd, n);
+        } else {
+            normalized.append('/'); // conforms to RFC 2616 section 3.2.2
+        }
+        return normalized.toString();
+    }
+
+    /** Whether the given range contains 4 decimal numbers, separated by '.'. */
+    private static boolean isIPv4(String s, int start, int end) {
+        int numbers = 0;
+        int p = start;
+        while (p < end) {
+            int numberStart = p;
+            while (p < end && isDigit(s.charAt(p))) {
+                ++p;
+            }
+            if (p == numberStart || p - numberStart > 3
+                    || Integer.parseInt(s.substring(numberStart, p)) > 255) {
+                return false;
+            }
+            ++numbers;
+            if (p < end) {
+                if (s.charAt(p) != '.') {
+                    return false;
+                }
+                ++p;
+            }
+        }
+        return numbers == 4 && s.charAt(end - 1) != '.';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isAlphanumeric(char c) {
+        return isLetter(c) || isDigit(c);
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    /** The ASCII characters that may appear in a path, except '%'. */
+    private static final boolean[] PATH = new boolean[128];
+    static {
+        for (char c = 'a'; c <= 'z'; ++c) {
+            PATH[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; ++c) {
+            PATH[c] = true;
+        }
+        for (char c = '0'; c <= '9'; ++c) {
+            PATH[c] = true;
+        }
+        for (char c : "-_.!~*'();:@&=+$,/".toCharArray()) {
+            PATH[c] = true;
+        }
+    }
+
+}
@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import net.oauth.client.ExcerptInputStream;
+import net.oauth.HeaderList;
 import net.oauth.OAuth;
 import net.oauth.OAuthMessage;
 import net.oauth.OAuthProblemException;
@@ -59,7 +60,11 @@ public class HttpMessage
 
     public String method;
     public URL url;
-    public final List<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>();
+    /**
+     * Always a HeaderList. It's declared as a List, so code that was compiled
+     * when it was an ArrayList still links.
+     */
+    public final List<Map.Entry<String, String>> headers = new HeaderList();
     protected InputStream body = null;
 
     /**
@@ -68,13 +73,7 @@ public class HttpMessage
      */
     public final String getHeader(String name)
     {
-        String value = null;
-        for (Map.Entry<String, String> header : headers) {
-            if (equalsIgnoreCase(name, header.getKey())) {
-                value = header.getValue();
-            }
-        }
-        return value;
+        return getHeaderList().getValue(name);
     }
 
     /**
@@ -85,15 +84,12 @@ public class HttpMessage
      */
     public String removeHeaders(String name)
     {
-        String value = null;
-        for (Iterator<Map.Entry<String, String>> i = headers.iterator(); i.hasNext();) {
-            Map.Entry<String, String> header = i.next();
-            if (equalsIgnoreCase(name, header.getKey())) {
-                value = header.getValue();
-                i.remove();
-            }
-        }
-        return value;
+        return getHeaderList().removeHeaders(name);
+    }
+
+    private HeaderList getHeaderList()
+    {
+        return (HeaderList) headers;
     }
 
     public final String getContentCharset()
@@ -175,14 +171,6 @@ public class HttpMessage
         return httpRequest;
     }
 
-    private static boolean equalsIgnoreCase(String x, String y)
-    {
-        if (x == null)
-            return y == null;
-        else
-            return x.equalsIgnoreCase(y);
-    }
-
     private static final String getCharset(String mimeType)
     {
         if (mimeType != null) {
@@ -0,0 +1,215 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oauth;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A NonceStore that occupies a fixed amount of memory, regardless of the rate
+ * of requests. Nonces are remembered in a pair of Bloom filters, each of which
+ * covers a generation of timestamps at least as long as the range of valid
+ * timestamps. When a nonce arrives from a new generation, the filter for the
+ * generation before last is discarded.
+ * <p>
+ * The price is that a fresh nonce is occasionally mistaken for a used one:
+ * when the filter contains the expected number of nonces, the probability of
+ * this is the given false positive rate, and it grows as the filter becomes
+ * fuller. A used nonce is never mistaken for a fresh one. The number of
+ * rejected nonces is counted, so the actual rate can be monitored.
+ * <p>
+ * Use it like this:
+ *
+ * <pre>
+ * long age = SimpleOAuthValidator.DEFAULT_MAX_TIMESTAMP_AGE;
+ * new SimpleOAuthValidator(age, 1.0, new BloomFilterNonceStore(age, 1000000, 0.0001));
+ * </pre>
+ *
+ * The caller must reject timestamps that are out of range, as
+ * SimpleOAuthValidator does. A nonce whose timestamp is older than both
+ * filters is rejected.
+ */
+public class BloomFilterNonceStore implements NonceStore {
+
+    /**
+     * @param maxTimestampAgeMsec
+     *            the range of valid timestamps, in milliseconds into the past
+     *            or future; the same as the validator's.
+     * @param expectedNonces
+     *            the number of nonces expected in each generation; that is,
+     *            within twice maxTimestampAgeMsec.
+     * @param falsePositiveRate
+     *            the acceptable probability that a fresh nonce is rejected,
+     *            when a filter contains the expected number of nonces.
+     */
+    public BloomFilterNonceStore(long maxTimestampAgeMsec, int expectedNonces, double falsePositiveRate) {
+        if (maxTimestampAgeMsec < 0 || expectedNonces <= 0 || !(0 < falsePositiveRate && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException(maxTimestampAgeMsec + ", " + expectedNonces + ", "
+                    + falsePositiveRate);
+        }
+        generationSeconds = ((2 * maxTimestampAgeMsec) + 1999) / 1000;
+        final double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-expectedNonces * Math.log(falsePositiveRate) / (ln2 * ln2));
+        long words = (bits + 63) / 64;
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(expectedNonces + " nonces, " + falsePositiveRate);
+        }
+        this.words = (int) words;
+        this.bits = words * 64;
+        this.hashes = Math.max(1, (int) Math.round(((double) this.bits / expectedNonces) * ln2));
+        SecureRandom random = new SecureRandom();
+        this.k0 = random.nextLong();
+        this.k1 = random.nextLong();
+    }
+
+    private final long generationSeconds;
+    private final int words;
+    private final long bits;
+    private final int hashes;
+    /** The secret key of the nonce digests. */
+    private final long k0;
+    private final long k1;
+    private final AtomicReferenceArray<Filter> filters = new AtomicReferenceArray<Filter>(2);
+    private final Object[] locks = newLocks(64);
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /** The number of nonces that were added. */
+    public long getAddedCount() {
+        return added.get();
+    }
+
+    /**
+     * The number of nonces that were rejected, because they were used or
+     * mistaken for used nonces.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /** The memory occupied by both filters, in bytes. */
+    public long getMemorySize() {
+        return 2 * (bits / 8);
+    }
+
+    public boolean add(long timestamp, String nonce, String consumerKey, String token) {
+        final long generation = getGeneration(timestamp);
+        final Filter filter = getFilter(generation);
+        boolean isNew = false;
+        if (filter != null) {
+            final NonceDigest digest = NonceDigest.of(k0, k1, timestamp, nonce, consumerKey, token);
+            final long h2 = digest.h2 | 1; // odd, so the probes are distinct
+            final long first = index(digest.h1);
+            // Adding the same nonce concurrently is serialized by this lock.
+            synchronized (locks[(int) (first & (locks.length - 1))]) {
+                for (int i = 0; i < hashes; ++i) {
+                    if (filter.set(index(digest.h1 + (i * h2)))) {
+                        isNew = true;
+                    }
+                }
+            }
+        }
+        if (isNew) {
+            added.incrementAndGet();
+        } else {
+            rejected.incrementAndGet();
+        }
+        return isNew;
+    }
+
+    public Long removeOlderThan(long minTimestamp) {
+        final long minGeneration = getGeneration(minTimestamp);
+        long remaining = Long.MAX_VALUE;
+        for (int f = 0; f < 2; ++f) {
+            Filter filter = filters.get(f);
+            if (filter != null) {
+                if (filter.generation < minGeneration) {
+                    filters.compareAndSet(f, filter, null);
+                } else if (filter.generation < remaining) {
+                    remaining = filter.generation;
+                }
+            }
+        }
+        return (remaining == Long.MAX_VALUE) ? null : remaining * generationSeconds;
+    }
+
+    /**
+     * Get the filter for the given generation; or replace a filter from an
+     * older generation; or return null if the generation is too old.
+     */
+    private Filter getFilter(long generation) {
+        final int f = (int) (generation & 1);
+        for (;;) {
+            Filter filter = filters.get(f);
+            if (filter != null) {
+                if (filter.generation == generation) {
+                    return filter;
+                } else if (filter.generation > generation) {
+                    return null;
+                }
+            }
+            filters.compareAndSet(f, filter, new Filter(generation, words));
+        }
+    }
+
+    private long getGeneration(long timestamp) {
+        long generation = timestamp / generationSeconds;
+        if (timestamp < 0 && generation * generationSeconds != timestamp) {
+            --generation; // round toward negative infinity
+        }
+        return generation;
+    }
+
+    private long index(long hash) {
+        return (hash & Long.MAX_VALUE) % bits;
+    }
+
+    private static Object[] newLocks(int n) {
+        Object[] locks = new Object[n];
+        for (int l = 0; l < n; ++l) {
+            locks[l] = new Object();
+        }
+        return locks;
+    }
+
+    /** A Bloom filter for one generation of timestamps. */
+    private static class Filter {
+
+        Filter(long generation, int words) {
+            this.generation = generation;
+            this.bits = new AtomicLongArray(words);
+        }
+
+        final long generation;
+        private final AtomicLongArray bits;
+
+        /** @return true if the bit wasn't already set */
+        boolean set(long index) {
+            final int w = (int) (index >>> 6);
+            final long mask = 1L << index;
+            for (;;) {
+                long word = bits.get(w);
+                if ((word & mask) != 0) {
+                    return false;
+                }
+                if (bits.compareAndSet(w, word, word | mask)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+}
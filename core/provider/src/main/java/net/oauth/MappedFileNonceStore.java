@@ -0,0 +1,320 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oauth;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.SecureRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A NonceStore in a memory-mapped file, which several processes on the same
+ * host can share. So a service provider that runs in several processes can
+ * detect a nonce that was used in any of them.
+ * <p>
+ * The file contains a fixed-size hash table of nonce digests and their
+ * timestamps, divided into stripes. To add a nonce, a process locks the
+ * stripe (with a region lock on the file), searches a short window of slots
+ * for the same digest and writes it into the first free slot. A slot whose
+ * timestamp is older than the last call to removeOlderThan is free; so
+ * there's no need to release garbage separately.
+ * <p>
+ * The table doesn't grow. If every slot in a window is occupied by a current
+ * nonce, the new nonce is rejected (add returns false), since forgetting a
+ * current nonce would let its request be replayed. So the capacity should be
+ * several times the number of requests expected within the range of valid
+ * timestamps. Processes that share a file must use the same range, and a
+ * process should open a given file only once.
+ * <p>
+ * Closing a FileChannel may release all the locks that the process holds on
+ * the file, and a FileChannel is closed if a thread is interrupted while
+ * using it. So a thread that's already interrupted doesn't lock the file
+ * itself; it waits while a thread that belongs to this object adds the nonce.
+ * If a thread is interrupted while it's locking the file anyway, the file is
+ * reopened.
+ */
+public class MappedFileNonceStore implements NonceStore, Closeable {
+
+    /** The default capacity is 2^20 nonces, which occupies 24 MB. */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    public MappedFileNonceStore(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Open the given file, or create it if it's empty or doesn't exist.
+     *
+     * @param capacity
+     *            the number of nonces that the file can contain. This is used
+     *            only to create the file; an existing file retains its
+     *            original capacity.
+     */
+    public MappedFileNonceStore(File file, int capacity) throws IOException {
+        if (capacity <= 0 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        boolean opened = false;
+        try {
+            FileLock lock = channel.lock(0, HEADER_SIZE, false);
+            try {
+                if (raf.length() < HEADER_SIZE) {
+                    int stripes = Math.max(1, Math.min(MAX_STRIPES, capacity / 64));
+                    int slotsPerStripe = (capacity + stripes - 1) / stripes;
+                    raf.setLength(HEADER_SIZE + ((long) stripes * slotsPerStripe * SLOT_SIZE));
+                    raf.seek(0);
+                    raf.writeLong(MAGIC);
+                    raf.writeInt(VERSION);
+                    raf.writeInt(stripes);
+                    raf.writeInt(slotsPerStripe);
+                    SecureRandom random = new SecureRandom();
+                    raf.writeLong(random.nextLong());
+                    raf.writeLong(random.nextLong());
+                }
+                raf.seek(0);
+                if (raf.readLong() != MAGIC || raf.readInt() != VERSION) {
+                    throw new IOException(file + " doesn't contain nonces");
+                }
+                stripes = raf.readInt();
+                slotsPerStripe = raf.readInt();
+                k0 = raf.readLong();
+                k1 = raf.readLong();
+                final long stripeSize = (long) slotsPerStripe * SLOT_SIZE;
+                final long size = HEADER_SIZE + (stripes * stripeSize);
+                if (stripes <= 0 || slotsPerStripe <= 0 || size > Integer.MAX_VALUE || raf.length() < size) {
+                    throw new IOException(file + " is corrupt");
+                }
+                this.stripeSize = (int) stripeSize;
+                this.probes = Math.min(MAX_PROBES, slotsPerStripe);
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                lock.release();
+            }
+            opened = true;
+        } finally {
+            if (!opened) {
+                raf.close();
+            }
+        }
+        stripeLocks = new Object[stripes];
+        for (int s = 0; s < stripes; ++s) {
+            stripeLocks[s] = new Object();
+        }
+    }
+
+    private final File file;
+    /** Replaced when the channel is closed by an interrupt; guarded by this. */
+    private RandomAccessFile raf;
+    private volatile FileChannel channel;
+    private boolean isClosed = false;
+    private final MappedByteBuffer buffer;
+    private final int stripes;
+    private final int slotsPerStripe;
+    private final int stripeSize;
+    private final int probes;
+    /** The secret key of the nonce digests. */
+    private final long k0;
+    private final long k1;
+    /**
+     * Held while locking a stripe of the file, since FileLocks don't exclude
+     * other threads of this process.
+     */
+    private final Object[] stripeLocks;
+    /** Adds nonces for interrupted threads. */
+    private final ExecutorService locker = Executors.newSingleThreadExecutor(LOCKER_FACTORY);
+    private volatile long minTimestamp = Long.MIN_VALUE;
+
+    private static final ThreadFactory LOCKER_FACTORY = new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, MappedFileNonceStore.class.getName() + ".lock");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    public boolean add(final long timestamp, String nonce, String consumerKey, String token) {
+        final NonceDigest digest = NonceDigest.of(k0, k1, timestamp, nonce, consumerKey, token);
+        final int stripe = (int) ((digest.h1 >>> 33) % stripes);
+        final long min = minTimestamp;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Boolean added = tryAdd(stripe, digest, timestamp, min);
+                if (added != null) {
+                    return added;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
+        Future<Boolean> added = locker.submit(new Callable<Boolean>() {
+            public Boolean call() throws IOException {
+                Boolean added;
+                do {
+                    added = tryAdd(stripe, digest, timestamp, min);
+                } while (added == null);
+                return added;
+            }
+        });
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return added.get();
+                } catch (InterruptedException e) {
+                    interrupted = true; // The nonce is being added; wait for it.
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause.getMessage(), cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Add a nonce to a stripe.
+     *
+     * @return whether the nonce was added, or null if the channel was closed
+     *         before the stripe was locked, and has been reopened
+     */
+    private Boolean tryAdd(int stripe, NonceDigest digest, long timestamp, long min) throws IOException {
+        final FileChannel channel = this.channel;
+        try {
+            synchronized (stripeLocks[stripe]) {
+                return add(channel, stripe, digest, timestamp, min);
+            }
+        } catch (ClosedChannelException e) {
+            reopen(channel);
+            return null;
+        }
+    }
+
+    private boolean add(FileChannel channel, int stripe, NonceDigest digest, long timestamp, long min)
+            throws IOException {
+        final int start = HEADER_SIZE + (stripe * stripeSize);
+        final int first = (int) ((digest.h2 >>> 1) % slotsPerStripe);
+        FileLock lock = channel.lock(start, stripeSize, false);
+        try {
+            int free = -1;
+            int oldest = -1;
+            long oldestTimestamp = Long.MAX_VALUE;
+            for (int p = 0, slot = first; p < probes; ++p, slot = (slot + 1) % slotsPerStripe) {
+                final int at = start + (slot * SLOT_SIZE);
+                final long h1 = buffer.getLong(at);
+                final long h2 = buffer.getLong(at + 8);
+                final long t = buffer.getLong(at + 16);
+                if (h1 == 0 && h2 == 0) {
+                    // This slot has never been used, so the digest isn't
+                    // stored in a subsequent slot.
+                    if (free < 0) {
+                        free = at;
+                    }
+                    break;
+                }
+                if (t < min) { // expired
+                    if (free < 0) {
+                        free = at;
+                    }
+                } else if (h1 == digest.h1 && h2 == digest.h2) {
+                    return false;
+                }
+            }
+            if (free < 0) { // The window is full.
+                return false;
+            }
+            buffer.putLong(free, digest.h1);
+            buffer.putLong(free + 8, digest.h2);
+            buffer.putLong(free + 16, timestamp);
+            return true;
+        } finally {
+            try {
+                lock.release();
+            } catch (ClosedChannelException e) {
+                // Closing the channel released the lock.
+            }
+        }
+    }
+
+    /** Replace the given channel, which was closed by an interrupt. */
+    private synchronized void reopen(FileChannel closed) throws IOException {
+        if (isClosed) {
+            throw new ClosedChannelException();
+        }
+        if (channel == closed) {
+            raf.close();
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+    }
+
+    /**
+     * Expired slots are reused as they're encountered, so there's never any
+     * garbage to release.
+     *
+     * @return null
+     */
+    public Long removeOlderThan(long minTimestamp) {
+        if (this.minTimestamp < minTimestamp) {
+            this.minTimestamp = minTimestamp;
+        }
+        return null;
+    }
+
+    public void close() throws IOException {
+        locker.shutdown();
+        try {
+            locker.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                isClosed = true;
+                raf.close();
+            }
+        }
+    }
+
+    /** "OAuthNon" in ASCII */
+    private static final long MAGIC = 0x4f417574684e6f6eL;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    /** Each slot contains two longs of digest and a long timestamp. */
+    private static final int SLOT_SIZE = 24;
+    private static final int MAX_STRIPES = 64;
+    private static final int MAX_PROBES = 32;
+
+}
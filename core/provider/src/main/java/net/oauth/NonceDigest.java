@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oauth;
+
+/**
+ * A 128 bit digest of a used nonce, computed without formatting or encoding
+ * the fields. The digest is SipHash-2-4 with 128 bit output, which is a keyed
+ * pseudorandom function: a store should choose a secret random key, so a
+ * client can't contrive a collision with another client's nonce.
+ * <p>
+ * The digest is never (0, 0), so a store may use that value to mark an empty
+ * slot.
+ */
+final class NonceDigest {
+
+    /** Compute the digest of the given nonce, with the key (k0, k1). */
+    static NonceDigest of(long k0, long k1, long timestamp, String nonce, String consumerKey, String token) {
+        NonceDigest digest = new NonceDigest(k0, k1);
+        digest.update(timestamp);
+        digest.update(nonce);
+        digest.update(consumerKey);
+        digest.update(token);
+        digest.finish();
+        return digest;
+    }
+
+    private NonceDigest(long k0, long k1) {
+        v0 = k0 ^ 0x736f6d6570736575L;
+        v1 = k1 ^ 0x646f72616e646f6dL ^ 0xee;
+        v2 = k0 ^ 0x6c7967656e657261L;
+        v3 = k1 ^ 0x7465646279746573L;
+    }
+
+    /** The digest; valid after finish. */
+    long h1;
+    long h2;
+
+    private long v0;
+    private long v1;
+    private long v2;
+    private long v3;
+    private long words = 0;
+
+    private void update(String s) {
+        if (s == null) {
+            update(-1L); // different from "" or any other String
+            return;
+        }
+        final int length = s.length();
+        update(length);
+        long word = 0;
+        int c = 0;
+        for (; c < length; ++c) {
+            word = (word << 16) | s.charAt(c);
+            if ((c & 3) == 3) {
+                update(word);
+                word = 0;
+            }
+        }
+        if ((c & 3) != 0) {
+            update(word);
+        }
+    }
+
+    /** Digest the next 8 bytes of the message, as a little-endian word. */
+    private void update(long word) {
+        ++words;
+        v3 ^= word;
+        round();
+        round();
+        v0 ^= word;
+    }
+
+    private void finish() {
+        final long last = (words * 8) << 56; // the message length, mod 256
+        v3 ^= last;
+        round();
+        round();
+        v0 ^= last;
+        v2 ^= 0xee;
+        round();
+        round();
+        round();
+        round();
+        h1 = v0 ^ v1 ^ v2 ^ v3;
+        v1 ^= 0xdd;
+        round();
+        round();
+        round();
+        round();
+        h2 = v0 ^ v1 ^ v2 ^ v3;
+        if (h1 == 0 && h2 == 0) {
+            h2 = 1;
+        }
+    }
+
+    private void round() {
+        v0 += v1;
+        v1 = Long.rotateLeft(v1, 13);
+        v1 ^= v0;
+        v0 = Long.rotateLeft(v0, 32);
+        v2 += v3;
+        v3 = Long.rotateLeft(v3, 16);
+        v3 ^= v2;
+        v0 += v3;
+        v3 = Long.rotateLeft(v3, 21);
+        v3 ^= v0;
+        v2 += v1;
+        v1 = Long.rotateLeft(v1, 17);
+        v1 ^= v2;
+        v2 = Long.rotateLeft(v2, 32);
+    }
+
+}
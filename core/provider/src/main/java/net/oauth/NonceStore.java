@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oauth;
+
+/**
+ * A memory of nonces that have been used, which a service provider consults to
+ * detect a repeated request. A nonce is identified by the combination of its
+ * timestamp, the nonce itself, the consumer key and the token. Implementations
+ * must be safe for use by concurrent threads.
+ */
+public interface NonceStore {
+
+    /**
+     * Remember the given nonce.
+     *
+     * @param timestamp
+     *            the oauth_timestamp, in seconds since midnight, January 1,
+     *            1970 UTC
+     * @param nonce
+     *            the oauth_nonce
+     * @param consumerKey
+     *            the oauth_consumer_key, or null to indicate it's absent
+     * @param token
+     *            the oauth_token, or null to indicate it's absent
+     * @return true if the nonce was added, or false to indicate that the same
+     *         nonce was already stored.
+     */
+    public boolean add(long timestamp, String nonce, String consumerKey, String token);
+
+    /**
+     * Forget nonces whose timestamps are earlier than the given minimum. An
+     * implementation may keep some of them a little longer, for example to
+     * release them in batches.
+     *
+     * @param minTimestamp
+     *            the earliest timestamp [sec] that's still acceptable
+     * @return a timestamp [sec] no later than the earliest timestamp that
+     *         remains stored, or null to indicate there's nothing stored that
+     *         a later call would release.
+     */
+    public Long removeOlderThan(long minTimestamp);
+
+}
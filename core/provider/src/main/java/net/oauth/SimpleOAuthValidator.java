@@ -18,15 +18,24 @@ package net.oauth;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import net.oauth.signature.OAuthSignatureMethod;
 
 //TODO: move this class into oauth-provider
@@ -35,13 +44,17 @@ import net.oauth.signature.OAuthSignatureMethod;
  * close to now, the nonce hasn't been used before and the signature is valid.
  * Each check may be overridden.
  * <p>
- * This implementation is less than industrial strength:
+ * Used nonces are remembered by a {@link NonceStore}; by default a
+ * {@link TimeBucketedNonceStore}, which is safe for concurrent use without a
+ * common lock. Otherwise, this implementation is less than industrial strength:
  * <ul>
  * <li>Duplicate nonces won't be reliably detected by a service provider running
- * in multiple processes, since the used nonces are stored in memory.</li>
- * <li>The collection of used nonces is a synchronized choke point</li>
+ * in multiple processes, since the used nonces are stored in memory; unless the
+ * processes share a {@link MappedFileNonceStore} on the same host.</li>
  * <li>The used nonces may occupy lots of memory, although you can minimize this
- * by calling releaseGarbage periodically.</li>
+ * by calling releaseGarbage periodically, or startReleasingGarbage. A
+ * {@link BloomFilterNonceStore} occupies a fixed amount of memory, at the cost
+ * of occasionally rejecting a fresh nonce.</li>
  * <li>The range of acceptable timestamps can't be changed, and there's no
  * system for increasing the range smoothly.</li>
  * <li>Correcting the clock backward may allow duplicate nonces.</li>
@@ -94,14 +107,30 @@ public class SimpleOAuthValidator implements OAuthValidator {
      *            the maximum valid oauth_version
      */
     public SimpleOAuthValidator(long maxTimestampAgeMsec, double maxVersion) {
+        this(maxTimestampAgeMsec, maxVersion, new TimeBucketedNonceStore());
+    }
+
+    /**
+     * Public constructor.
+     * 
+     * @param maxTimestampAgeMsec
+     *            the range of valid timestamps, in milliseconds into the past
+     *            or future.
+     * @param maxVersion
+     *            the maximum valid oauth_version
+     * @param usedNonces
+     *            where to remember the nonces that have been validated
+     */
+    public SimpleOAuthValidator(long maxTimestampAgeMsec, double maxVersion, NonceStore usedNonces) {
         this.maxTimestampAgeMsec = maxTimestampAgeMsec;
         this.maxVersion = maxVersion;
+        this.usedNonces = usedNonces;
     }
 
     protected final double minVersion = 1.0;
     protected final double maxVersion;
     protected final long maxTimestampAgeMsec;
-    private final Set<UsedNonce> usedNonces = new TreeSet<UsedNonce>();
+    private final NonceStore usedNonces;
 
     /**
      * Allow objects that are no longer useful to become garbage.
@@ -115,39 +144,340 @@ public class SimpleOAuthValidator implements OAuthValidator {
         return removeOldNonces(currentTimeMsec());
     }
 
+    private ScheduledExecutorService garbageCollector = null;
+    private volatile boolean isReleasingGarbage = false;
+
     /**
-     * Remove usedNonces with timestamps that are too old to be valid.
+     * Start calling releaseGarbage periodically, in a background thread.
+     * Subsequently, validateNonce doesn't release garbage; so a request
+     * doesn't wait while old nonces are removed. If garbage is already being
+     * released in the background, change the period.
+     * <p>
+     * If releaseGarbage throws an exception or error, it's passed to the
+     * background thread's UncaughtExceptionHandler, and releasing continues.
+     * 
+     * @param periodMsec
+     *            the delay between the end of one release and the start of
+     *            the next, in milliseconds
      */
-    private Date removeOldNonces(long currentTimeMsec) {
-        UsedNonce next = null;
-        UsedNonce min = new UsedNonce((currentTimeMsec - maxTimestampAgeMsec + 500) / 1000L);
-        synchronized (usedNonces) {
-            // Because usedNonces is a TreeSet, its iterator produces
-            // elements from oldest to newest (their natural order).
-            for (Iterator<UsedNonce> iter = usedNonces.iterator(); iter.hasNext();) {
-                UsedNonce used = iter.next();
-                if (min.compareTo(used) <= 0) {
-                    next = used;
-                    break; // all the rest are also new enough
+    public synchronized void startReleasingGarbage(long periodMsec) {
+        stopReleasingGarbage();
+        garbageCollector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, SimpleOAuthValidator.class.getName() + ".releaseGarbage");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        garbageCollector.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    releaseGarbage();
+                } catch (Throwable e) { // An Error would otherwise cancel this task.
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
                 }
-                iter.remove(); // too old
             }
+        }, periodMsec, periodMsec, TimeUnit.MILLISECONDS);
+        isReleasingGarbage = true;
+    }
+
+    /**
+     * Stop releasing garbage in the background. Subsequently, validateNonce
+     * releases garbage again.
+     */
+    public synchronized void stopReleasingGarbage() {
+        if (garbageCollector != null) {
+            garbageCollector.shutdown();
+            garbageCollector = null;
         }
+        isReleasingGarbage = false;
+    }
+
+    /**
+     * Remove usedNonces with timestamps that are too old to be valid.
+     */
+    private Date removeOldNonces(long currentTimeMsec) {
+        Long next = usedNonces.removeOlderThan((currentTimeMsec - maxTimestampAgeMsec + 500) / 1000L);
         if (next == null)
             return null;
-        return new Date((next.getTimestamp() * 1000L) + maxTimestampAgeMsec + 500);
+        return new Date((next.longValue() * 1000L) + maxTimestampAgeMsec + 500);
     }
 
     /** {@inherit} 
      * @throws URISyntaxException */
     public void validateMessage(OAuthMessage message, OAuthAccessor accessor)
     throws OAuthException, IOException, URISyntaxException {
+        if (isSinglePass) {
+            validateSinglePass(message, accessor);
+            return;
+        }
         checkSingleParameters(message);
         validateVersion(message);
         validateTimestampAndNonce(message);
         validateSignature(message, accessor);
     }
 
+    /**
+     * Whether validateMessage scans the message parameters just once, rather
+     * than calling the protected check methods.
+     */
+    private volatile boolean isSinglePass = false;
+
+    /**
+     * Choose whether validateMessage finds all the oauth_ parameters in one
+     * scan of the message parameters. By default it doesn't; it calls
+     * checkSingleParameters, validateVersion, validateTimestampAndNonce and
+     * validateSignature. In single pass mode, those methods are called only to
+     * report a problem, so don't enable it in a subclass that overrides them
+     * to check more. validateTimestamp and validateNonce are always called, and
+     * the signature is checked by OAuthSignatureMethod.validate(OAuthMessage).
+     */
+    public void setSinglePass(boolean singlePass) {
+        this.isSinglePass = singlePass;
+    }
+
+    /**
+     * Validate the message like the protected check methods, but find all the
+     * oauth_ parameters in one scan of the message parameters. This allocates
+     * no memory unless the message is invalid (except to verify the
+     * signature); the check methods are called to report problems.
+     */
+    private void validateSinglePass(OAuthMessage message, OAuthAccessor accessor)
+    throws OAuthException, IOException, URISyntaxException {
+        final int present;
+        final boolean repeated;
+        final String signatureMethod;
+        final String timestampString;
+        final String version;
+        final Fields fields = FIELDS.get();
+        try {
+            fields.scan(message.getParameters());
+            present = fields.present;
+            repeated = fields.repeated;
+            signatureMethod = fields.values[SIGNATURE_METHOD];
+            timestampString = fields.values[TIMESTAMP];
+            version = fields.values[VERSION];
+        } finally {
+            fields.clear();
+        }
+        if (repeated) {
+            checkSingleParameters(message);
+        }
+        if (version != null
+                && !(OAuth.VERSION_1_0.equals(version) && minVersion <= 1.0 && 1.0 <= maxVersion)) {
+            validateVersion(message);
+        }
+        if ((present & TIMESTAMP_AND_NONCE) != TIMESTAMP_AND_NONCE) {
+            message.requireParameters(OAuth.OAUTH_TIMESTAMP, OAuth.OAUTH_NONCE);
+        }
+        long timestamp = parseTimestamp(timestampString);
+        long now = currentTimeMsec();
+        validateTimestamp(message, timestamp, now);
+        validateNonce(message, timestamp, now);
+        if ((present & SIGNATURE_PARAMETERS) != SIGNATURE_PARAMETERS) {
+            message.requireParameters(OAuth.OAUTH_CONSUMER_KEY,
+                    OAuth.OAUTH_SIGNATURE_METHOD, OAuth.OAUTH_SIGNATURE);
+        }
+        OAuthSignatureMethod.getSigner(signatureMethod, accessor).validate(message);
+    }
+
+    /** Parse a timestamp like Long.parseLong, faster in the usual case. */
+    private static long parseTimestamp(String timestamp) {
+        final int n = (timestamp == null) ? 0 : timestamp.length();
+        if (n <= 0 || n > 18) {
+            return Long.parseLong(timestamp);
+        }
+        long value = 0;
+        for (int i = 0; i < n; ++i) {
+            char c = timestamp.charAt(i);
+            if (c < '0' || c > '9') {
+                return Long.parseLong(timestamp);
+            }
+            value = (value * 10) + (c - '0');
+        }
+        return value;
+    }
+
+    /** The indexes of the single parameters, in Fields.values. */
+    private static final int CONSUMER_KEY = 0, TOKEN = 1, SIGNATURE_METHOD = 2, SIGNATURE = 3, TIMESTAMP = 4,
+            NONCE = 5, VERSION = 6;
+
+    /** The names of the single parameters, by index. */
+    private static final String[] FIELD_NAMES = { OAuth.OAUTH_CONSUMER_KEY, OAuth.OAUTH_TOKEN,
+            OAuth.OAUTH_SIGNATURE_METHOD, OAuth.OAUTH_SIGNATURE, OAuth.OAUTH_TIMESTAMP, OAuth.OAUTH_NONCE,
+            OAuth.OAUTH_VERSION, OAuth.OAUTH_TOKEN_SECRET, OAuth.OAUTH_CALLBACK };
+
+    private static final int TIMESTAMP_AND_NONCE = (1 << TIMESTAMP) | (1 << NONCE);
+
+    private static final int SIGNATURE_PARAMETERS = (1 << CONSUMER_KEY) | (1 << SIGNATURE_METHOD)
+            | (1 << SIGNATURE);
+
+    /**
+     * The values of the single parameters of a message, as found by one scan
+     * of its parameters. Each thread reuses one of these.
+     */
+    private static class Fields {
+
+        final String[] values = new String[FIELD_NAMES.length];
+
+        /** For each parameter, 1 << its index if it's present. */
+        int present;
+
+        /** Whether a single parameter is present more than once. */
+        boolean repeated;
+
+        void scan(List<Map.Entry<String, String>> parameters) {
+            for (int p = 0, n = parameters.size(); p < n; ++p) {
+                Map.Entry<String, String> parameter = parameters.get(p);
+                String name = parameter.getKey();
+                if (name != null && name.startsWith("oauth_")) {
+                    for (int f = 0; f < FIELD_NAMES.length; ++f) {
+                        if (FIELD_NAMES[f].equals(name)) {
+                            final int bit = 1 << f;
+                            if ((present & bit) != 0) {
+                                repeated = true;
+                            } else {
+                                present |= bit;
+                                values[f] = parameter.getValue();
+                            }
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        /** Forget the values, so they can become garbage. */
+        void clear() {
+            for (int f = 0; f < values.length; ++f) {
+                values[f] = null;
+            }
+            present = 0;
+            repeated = false;
+        }
+    }
+
+    private static final ThreadLocal<Fields> FIELDS = new ThreadLocal<Fields>() {
+        @Override
+        protected Fields initialValue() {
+            return new Fields();
+        }
+    };
+
+    /**
+     * Validate the message in a thread of the default {@link CryptoExecutor}.
+     * 
+     * @see #validateMessageAsync(OAuthMessage, OAuthAccessor, ExecutorService)
+     */
+    public Future<Void> validateMessageAsync(OAuthMessage message, OAuthAccessor accessor) {
+        return validateMessageAsync(message, accessor, CryptoExecutor.getDefault());
+    }
+
+    /**
+     * Validate the message in a thread of the given executor. The caller
+     * mustn't access the message until validation is done.
+     * 
+     * @return a Future that completes normally if the message is valid, or
+     *         throws an ExecutionException caused by the exception that
+     *         validateMessage would throw.
+     * @throws RejectedExecutionException
+     *             if the executor can't accept the task, for example because
+     *             its queue is full
+     */
+    public Future<Void> validateMessageAsync(final OAuthMessage message, final OAuthAccessor accessor,
+            ExecutorService executor) {
+        return executor.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                validateMessage(message, accessor);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Validate a batch of messages, using the default {@link CryptoExecutor}.
+     * 
+     * @see #validateMessages(List, List, ExecutorService)
+     */
+    public List<Exception> validateMessages(List<? extends OAuthMessage> messages,
+            List<? extends OAuthAccessor> accessors) throws InterruptedException {
+        return validateMessages(messages, accessors, CryptoExecutor.getDefault());
+    }
+
+    /**
+     * Validate a batch of messages. The cheap checks (repeated parameters,
+     * version, timestamp and nonce) are done first, in this thread; and then
+     * the signatures of the messages that passed are verified in parallel, in
+     * threads of the given executor. If the executor rejects a signature, it's
+     * verified in this thread instead. This uses the protected check methods,
+     * not validateMessage.
+     * <p>
+     * If this thread belongs to a {@link CryptoExecutor}, all the signatures
+     * are verified in this thread, since waiting for other tasks of a bounded
+     * pool from one of its own threads could deadlock. Don't call this from a
+     * thread of any other executor that's given to it.
+     * 
+     * @param messages
+     *            the messages to validate
+     * @param accessors
+     *            the accessor for each message, in the same order
+     * @return for each message, in the same order, the exception that
+     *         validateMessage would throw; or null if the message is valid
+     */
+    public List<Exception> validateMessages(List<? extends OAuthMessage> messages,
+            List<? extends OAuthAccessor> accessors, ExecutorService executor) throws InterruptedException {
+        final int n = messages.size();
+        if (accessors.size() != n) {
+            throw new IllegalArgumentException(n + " messages but " + accessors.size() + " accessors");
+        }
+        final boolean inline = CryptoExecutor.isExecutorThread();
+        final Exception[] results = new Exception[n];
+        final List<Future<Void>> signatures = new ArrayList<Future<Void>>(n);
+        for (int m = 0; m < n; ++m) {
+            final OAuthMessage message = messages.get(m);
+            final OAuthAccessor accessor = accessors.get(m);
+            Future<Void> signature = null;
+            try {
+                checkSingleParameters(message);
+                validateVersion(message);
+                validateTimestampAndNonce(message);
+                if (!inline) {
+                    try {
+                        signature = executor.submit(new Callable<Void>() {
+                            public Void call() throws Exception {
+                                validateSignature(message, accessor);
+                                return null;
+                            }
+                        });
+                    } catch (RejectedExecutionException saturated) {
+                    }
+                }
+                if (signature == null) {
+                    validateSignature(message, accessor);
+                }
+            } catch (Exception e) {
+                results[m] = e;
+            }
+            signatures.add(signature);
+        }
+        for (int m = 0; m < n; ++m) {
+            Future<Void> signature = signatures.get(m);
+            if (signature != null) {
+                try {
+                    signature.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    results[m] = (Exception) cause;
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
     /** Throw an exception if any SINGLE_PARAMETERS occur repeatedly. */
     protected void checkSingleParameters(OAuthMessage message) throws IOException, OAuthException {
         // Check for repeated oauth_ parameters:
@@ -215,7 +545,7 @@ public class SimpleOAuthValidator implements OAuthValidator {
         long min = (currentTimeMsec - maxTimestampAgeMsec + 500) / 1000L;
         long max = (currentTimeMsec + maxTimestampAgeMsec + 500) / 1000L;
         if (timestamp < min || max < timestamp) {
-            OAuthProblemException problem = new OAuthProblemException(OAuth.Problems.TIMESTAMP_REFUSED);
+            OAuthProblemException problem = OAuthProblemException.newRejection(OAuth.Problems.TIMESTAMP_REFUSED);
             problem.setParameter(OAuth.Problems.OAUTH_ACCEPTABLE_TIMESTAMPS, min + "-" + max);
             throw problem;
         }
@@ -226,23 +556,28 @@ public class SimpleOAuthValidator implements OAuthValidator {
      * 
      * @return the earliest point in time at which a call to releaseGarbage
      *         will actually release some garbage, or null to indicate there's
-     *         nothing currently stored that will become garbage in future.
+     *         nothing currently stored that will become garbage in future, or
+     *         that garbage is being released in the background.
      */
     protected Date validateNonce(OAuthMessage message, long timestamp, long currentTimeMsec) throws IOException,
             OAuthProblemException {
-        UsedNonce nonce = new UsedNonce(timestamp,
-                message.getParameter(OAuth.OAUTH_NONCE), message.getConsumerKey(), message.getToken());
         /*
          * The OAuth standard requires the token to be omitted from the stored
          * nonce. But I include it, to harmonize with a Consumer that generates
          * nonces using several independent computers, each with its own token.
          */
-        boolean valid = false;
-        synchronized (usedNonces) {
-            valid = usedNonces.add(nonce);
-        }
+        return addNonce(timestamp, message.getParameter(OAuth.OAUTH_NONCE), message.getConsumerKey(),
+                message.getToken(), currentTimeMsec);
+    }
+
+    private Date addNonce(long timestamp, String nonce, String consumerKey, String token,
+            long currentTimeMsec) throws OAuthProblemException {
+        boolean valid = usedNonces.add(timestamp, nonce, consumerKey, token);
         if (!valid) {
-            throw new OAuthProblemException(OAuth.Problems.NONCE_USED);
+            throw OAuthProblemException.newRejection(OAuth.Problems.NONCE_USED);
+        }
+        if (isReleasingGarbage) {
+            return null;
         }
         return removeOldNonces(currentTimeMsec);
     }
@@ -251,80 +586,11 @@ public class SimpleOAuthValidator implements OAuthValidator {
     throws OAuthException, IOException, URISyntaxException {
         message.requireParameters(OAuth.OAUTH_CONSUMER_KEY,
                 OAuth.OAUTH_SIGNATURE_METHOD, OAuth.OAUTH_SIGNATURE);
-        OAuthSignatureMethod.newSigner(message, accessor).validate(message);
+        OAuthSignatureMethod.getSigner(message, accessor).validate(message);
     }
 
     /** Get the number of milliseconds since midnight, January 1, 1970 UTC. */
     protected long currentTimeMsec() {
         return System.currentTimeMillis();
     }
-
-    /**
-     * Selected parameters from an OAuth request, in a form suitable for
-     * detecting duplicate requests. The implementation is optimized for the
-     * comparison operations (compareTo, equals and hashCode).
-     * 
-     * @author John Kristian
-     */
-    private static class UsedNonce implements Comparable<UsedNonce> {
-        /**
-         * Construct an object containing the given timestamp, nonce and other
-         * parameters. The order of parameters is significant.
-         */
-        UsedNonce(long timestamp, String... nonceEtc) {
-            StringBuilder key = new StringBuilder(String.format("%20d", Long.valueOf(timestamp)));
-            // The blank padding ensures that timestamps are compared as numbers.
-            for (String etc : nonceEtc) {
-                key.append("&").append(etc == null ? " " : OAuth.percentEncode(etc));
-                // A null value is different from "" or any other String.
-            }
-            sortKey = key.toString();
-        }
-
-        private final String sortKey;
-
-        long getTimestamp() {
-            int end = sortKey.indexOf("&");
-            if (end < 0)
-                end = sortKey.length();
-            return Long.parseLong(sortKey.substring(0, end).trim());
-        }
-
-        /**
-         * Determine the relative order of <code>this</code> and
-         * <code>that</code>, as specified by Comparable. The timestamp is most
-         * significant; that is, if the timestamps are different, return 1 or
-         * -1. If <code>this</code> contains only a timestamp (with no nonce
-         * etc.), return -1 or 0. The treatment of the nonce etc. is murky,
-         * although 0 is returned only if they're all equal.
-         */
-        public int compareTo(UsedNonce that) {
-            return (that == null) ? 1 : sortKey.compareTo(that.sortKey);
-        }
-
-        @Override
-        public int hashCode() {
-            return sortKey.hashCode();
-        }
-
-        /**
-         * Return true iff <code>this</code> and <code>that</code> contain equal
-         * timestamps, nonce etc., in the same order.
-         */
-        @Override
-        public boolean equals(Object that) {
-            if (that == null)
-                return false;
-            if (that == this)
-                return true;
-            if (that.getClass() != getClass())
-                return false;
-            return sortKey.equals(((UsedNonce) that).sortKey);
-        }
-
-        @Override
-        public String toString() {
-            return sortKey;
-        }
-    }
 }
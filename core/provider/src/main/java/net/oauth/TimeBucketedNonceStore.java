@@ -0,0 +1,211 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oauth;
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A NonceStore that partitions nonces into buckets by timestamp. Each bucket
+ * covers a fixed number of seconds, and is a concurrent set of the nonces with
+ * timestamps in that range. Adding a nonce doesn't hold any lock that's shared
+ * with other buckets, and old nonces are released a whole bucket at a time.
+ * <p>
+ * Each nonce is remembered as a 128 bit digest of its timestamp, nonce,
+ * consumer key and token, stored in an open-addressed array of longs. So a
+ * nonce occupies a few dozen bytes, regardless of the length of its fields.
+ * The digest is keyed randomly, so a client can't predict which nonces
+ * collide. The chance that two distinct nonces collide is negligible.
+ * <p>
+ * The store relies on its caller to reject timestamps that are older than the
+ * most recent call to removeOlderThan. A nonce with such a timestamp would be
+ * stored in a bucket that's no longer checked or released.
+ */
+public class TimeBucketedNonceStore implements NonceStore {
+
+    /** The default width of a bucket is 1 second. */
+    public static final long DEFAULT_BUCKET_SECONDS = 1;
+
+    public TimeBucketedNonceStore() {
+        this(DEFAULT_BUCKET_SECONDS);
+    }
+
+    /**
+     * @param bucketSeconds
+     *            the range of timestamps [sec] in each bucket. A larger range
+     *            yields fewer buckets, which are released less promptly.
+     */
+    public TimeBucketedNonceStore(long bucketSeconds) {
+        if (bucketSeconds <= 0) {
+            throw new IllegalArgumentException("bucketSeconds " + bucketSeconds);
+        }
+        this.bucketSeconds = bucketSeconds;
+        SecureRandom random = new SecureRandom();
+        this.k0 = random.nextLong();
+        this.k1 = random.nextLong();
+    }
+
+    private final long bucketSeconds;
+    /** The secret key of the nonce digests. */
+    private final long k0;
+    private final long k1;
+    private final ConcurrentMap<Long, Bucket> buckets = new ConcurrentHashMap<Long, Bucket>();
+    /** No bucket with a smaller index is stored. */
+    private final AtomicLong oldestBucket = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicBoolean removing = new AtomicBoolean(false);
+
+    public boolean add(long timestamp, String nonce, String consumerKey, String token) {
+        final long index = getBucketIndex(timestamp);
+        Bucket bucket = buckets.get(index);
+        if (bucket == null) {
+            Bucket newBucket = new Bucket();
+            bucket = buckets.putIfAbsent(index, newBucket);
+            if (bucket == null) {
+                bucket = newBucket;
+                for (long oldest; index < (oldest = oldestBucket.get());) {
+                    if (oldestBucket.compareAndSet(oldest, index)) {
+                        break;
+                    }
+                }
+            }
+        }
+        NonceDigest digest = NonceDigest.of(k0, k1, timestamp, nonce, consumerKey, token);
+        return bucket.add(digest.h1, digest.h2);
+    }
+
+    public Long removeOlderThan(long minTimestamp) {
+        final long minBucket = getBucketIndex(minTimestamp);
+        long oldest = oldestBucket.get();
+        if (oldest < minBucket && removing.compareAndSet(false, true)) {
+            // Only one thread at a time releases garbage; the others needn't wait.
+            try {
+                long remaining = Long.MAX_VALUE;
+                for (Iterator<Long> i = buckets.keySet().iterator(); i.hasNext();) {
+                    long index = i.next();
+                    if (index < minBucket) {
+                        i.remove();
+                    } else if (index < remaining) {
+                        remaining = index;
+                    }
+                }
+                // A concurrent add may have created an older bucket:
+                oldestBucket.compareAndSet(oldest, remaining);
+                oldest = oldestBucket.get();
+            } finally {
+                removing.set(false);
+            }
+        }
+        if (oldest == Long.MAX_VALUE) {
+            return null;
+        }
+        return oldest * bucketSeconds;
+    }
+
+    private long getBucketIndex(long timestamp) {
+        long index = timestamp / bucketSeconds;
+        if (timestamp < 0 && index * bucketSeconds != timestamp) {
+            --index; // round toward negative infinity
+        }
+        return index;
+    }
+
+    /**
+     * A set of nonce digests. The set is divided into stripes, each of which
+     * is guarded by its own lock, so concurrent threads rarely wait for each
+     * other. A stripe is created when a digest is first added to it, so a
+     * bucket that contains few nonces is small.
+     */
+    private static class Bucket {
+
+        private final AtomicReferenceArray<Stripe> stripes = new AtomicReferenceArray<Stripe>(STRIPES);
+
+        /** @return true if the set didn't already contain the given digest */
+        boolean add(long h1, long h2) {
+            final int s = (int) (h1 >>> 32) & (STRIPES - 1);
+            Stripe stripe = stripes.get(s);
+            if (stripe == null) {
+                Stripe newStripe = new Stripe();
+                if (stripes.compareAndSet(s, null, newStripe)) {
+                    stripe = newStripe;
+                } else {
+                    stripe = stripes.get(s);
+                }
+            }
+            return stripe.add(h1, h2);
+        }
+
+        /** The number of stripes; a power of 2. */
+        private static final int STRIPES = getStripes();
+
+        private static int getStripes() {
+            int target = Runtime.getRuntime().availableProcessors() * 2;
+            int stripes = 1;
+            while (stripes < target && stripes < 64) {
+                stripes <<= 1;
+            }
+            return stripes;
+        }
+    }
+
+    /** An open-addressed set of digests, with linear probing. */
+    private static class Stripe {
+
+        /** Pairs of longs; (0, 0) marks an empty slot. */
+        private long[] table = new long[2 * 8];
+        private int size = 0;
+
+        synchronized boolean add(long h1, long h2) {
+            if ((size + 1) * 4 > table.length * 3 / 2) { // load factor 3/4
+                grow();
+            }
+            if (insert(table, h1, h2)) {
+                ++size;
+                return true;
+            }
+            return false;
+        }
+
+        private void grow() {
+            long[] larger = new long[table.length * 2];
+            for (int t = 0; t < table.length; t += 2) {
+                if (table[t] != 0 || table[t + 1] != 0) {
+                    insert(larger, table[t], table[t + 1]);
+                }
+            }
+            table = larger;
+        }
+
+        private static boolean insert(long[] table, long h1, long h2) {
+            final int mask = table.length - 2;
+            for (int t = ((int) h2 << 1) & mask;; t = (t + 2) & mask) {
+                long t1 = table[t];
+                long t2 = table[t + 1];
+                if (t1 == h1 && t2 == h2) {
+                    return false;
+                }
+                if (t1 == 0 && t2 == 0) {
+                    table[t] = h1;
+                    table[t + 1] = h2;
+                    return true;
+                }
+            }
+        }
+    }
+
+}
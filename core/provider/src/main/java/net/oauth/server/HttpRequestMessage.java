@@ -37,10 +37,56 @@ public class HttpRequestMessage extends OAuthMessage {
     public HttpRequestMessage(HttpServletRequest request, String URL) {
         super(request.getMethod(), URL, getParameters(request));
         this.request = request;
-        copyHeaders(request, getHeaders());
+        this.maxFormLength = -1;
+    }
+
+    /**
+     * Construct a message whose parameters are parsed when they're first
+     * needed, without calling request.getParameterMap(). The parameters come
+     * from the Authorization headers, the query string and a body whose
+     * Content-Type is application/x-www-form-urlencoded. Such a body is read
+     * from request.getInputStream(); any other body isn't read.
+     * 
+     * @param maxFormLength
+     *            the maximum length of a form-encoded body, in bytes. Getting
+     *            the parameters from a longer body throws an IOException.
+     */
+    public HttpRequestMessage(HttpServletRequest request, String URL, int maxFormLength) {
+        super(request.getMethod(), URL, null);
+        this.request = request;
+        this.maxFormLength = maxFormLength;
     }
 
     private final HttpServletRequest request;
+    /** The maximum length of a form body, or -1 if the parameters are already complete. */
+    private final int maxFormLength;
+    /**
+     * Why the form body couldn't be read. The body can't be read again, so
+     * the parameters stay incomplete.
+     */
+    private IOException formFailure;
+
+    @Override
+    protected void completeParameters() throws IOException {
+        super.completeParameters();
+        if (maxFormLength >= 0) {
+            if (formFailure != null) {
+                throw formFailure;
+            }
+            List<OAuth.Parameter> list = new ArrayList<OAuth.Parameter>();
+            addAuthorizationParameters(request, list);
+            list.addAll(OAuth.decodeForm(request.getQueryString()));
+            if (isForm(request.getContentType())) {
+                try {
+                    list.addAll(OAuth.decodeForm(readForm(request, maxFormLength)));
+                } catch (IOException e) {
+                    formFailure = e;
+                    throw e;
+                }
+            }
+            addParameters(list);
+        }
+    }
 
     @Override
     public InputStream getBodyAsStream() throws IOException {
@@ -52,6 +98,12 @@ public class HttpRequestMessage extends OAuthMessage {
         return request.getCharacterEncoding();
     }
 
+    /** Copy the headers from the servlet request, when they're first needed. */
+    @Override
+    protected void completeHeaders() {
+        copyHeaders(request, getHeaders());
+    }
+
     private static void copyHeaders(HttpServletRequest request, Collection<Map.Entry<String, String>> into) {
         Enumeration<String> names = request.getHeaderNames();
         if (names != null) {
@@ -69,24 +121,79 @@ public class HttpRequestMessage extends OAuthMessage {
 
     public static List<OAuth.Parameter> getParameters(HttpServletRequest request) {
         List<OAuth.Parameter> list = new ArrayList<OAuth.Parameter>();
+        addAuthorizationParameters(request, list);
+        for (Object e : request.getParameterMap().entrySet()) {
+            Map.Entry<String, String[]> entry = (Map.Entry<String, String[]>) e;
+            String name = entry.getKey();
+            for (String value : entry.getValue()) {
+                list.add(new OAuth.Parameter(name, value));
+            }
+        }
+        return list;
+    }
+
+    private static void addAuthorizationParameters(HttpServletRequest request,
+            List<OAuth.Parameter> into) {
         for (Enumeration<String> headers = request.getHeaders("Authorization"); headers != null
                 && headers.hasMoreElements();) {
             String header = headers.nextElement();
             for (OAuth.Parameter parameter : OAuthMessage
                     .decodeAuthorization(header)) {
                 if (!"realm".equalsIgnoreCase(parameter.getKey())) {
-                    list.add(parameter);
+                    into.add(parameter);
                 }
             }
         }
-        for (Object e : request.getParameterMap().entrySet()) {
-            Map.Entry<String, String[]> entry = (Map.Entry<String, String[]>) e;
-            String name = entry.getKey();
-            for (String value : entry.getValue()) {
-                list.add(new OAuth.Parameter(name, value));
+    }
+
+    private static boolean isForm(String contentType) {
+        final int n = OAuth.FORM_ENCODED.length();
+        if (contentType == null || !contentType.regionMatches(true, 0, OAuth.FORM_ENCODED, 0, n)) {
+            return false;
+        }
+        return contentType.length() == n || contentType.charAt(n) == ';'
+                || Character.isWhitespace(contentType.charAt(n));
+    }
+
+    /**
+     * Read a form-encoded body, and decode it using the request's character
+     * encoding, which is ISO-8859-1 by default (as it is for
+     * request.getParameterMap).
+     * 
+     * @throws IOException
+     *             the body is longer than maxLength bytes
+     */
+    private static String readForm(HttpServletRequest request, int maxLength) throws IOException {
+        final int declared = request.getContentLength();
+        if (declared > maxLength) {
+            throw new IOException("The form body is longer than " + maxLength + " bytes.");
+        }
+        InputStream body = request.getInputStream();
+        if (body == null) {
+            return null;
+        }
+        byte[] buffer = new byte[(declared >= 0) ? declared : Math.min(maxLength, 1024)];
+        int length = 0;
+        while (true) {
+            if (length >= buffer.length) {
+                if (length >= maxLength) {
+                    if (body.read() < 0) {
+                        break;
+                    }
+                    throw new IOException("The form body is longer than " + maxLength + " bytes.");
+                }
+                byte[] bigger = new byte[Math.min(maxLength, Math.max(length * 2, 1024))];
+                System.arraycopy(buffer, 0, bigger, 0, length);
+                buffer = bigger;
             }
+            int n = body.read(buffer, length, buffer.length - length);
+            if (n < 0) {
+                break;
+            }
+            length += n;
         }
-        return list;
+        String encoding = request.getCharacterEncoding();
+        return new String(buffer, 0, length, (encoding == null) ? "ISO-8859-1" : encoding);
     }
 
 }
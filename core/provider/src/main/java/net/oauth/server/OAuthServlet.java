@@ -46,6 +46,28 @@ public class OAuthServlet {
      *            from the HTTP request; which may be wrong in some cases.
      */
     public static OAuthMessage getMessage(HttpServletRequest request, String URL) {
+        return new HttpRequestMessage(request, getURL(request, URL));
+    }
+
+    /**
+     * Extract the parts of the given request that are relevant to OAuth, like
+     * getMessage(request, URL) but without request.getParameterMap(), which
+     * may make the servlet container read and buffer the whole body. The
+     * parameters are parsed when they're first needed, from the Authorization
+     * headers, the query string and a body whose Content-Type is
+     * application/x-www-form-urlencoded, in that order. Any other body isn't
+     * read.
+     * 
+     * @param maxFormLength
+     *            the maximum length of a form-encoded body, in bytes. Getting
+     *            the parameters from a longer body throws an IOException.
+     */
+    public static OAuthMessage getMessage(HttpServletRequest request, String URL,
+            int maxFormLength) {
+        return new HttpRequestMessage(request, getURL(request, URL), maxFormLength);
+    }
+
+    private static String getURL(HttpServletRequest request, String URL) {
         if (URL == null) {
             URL = request.getRequestURL().toString();
         }
@@ -53,9 +75,9 @@ public class OAuthServlet {
         if (q >= 0) {
             URL = URL.substring(0, q);
             // The query string parameters will be included in
-            // the result from getParameters(request).
+            // the message parameters.
         }
-        return new HttpRequestMessage(request, URL);
+        return URL;
     }
 
     /** Reconstruct the requested URL, complete with query string (if any). */
@@ -73,12 +95,19 @@ public class OAuthServlet {
         handleException(response, e, realm, true);
     }
 
+    /**
+     * Send a response that reports the given exception. If it's an
+     * OAuthProblemException, its parameters are sent in the WWW-Authenticate
+     * header and (if sendBody) in the response body; but not lazy parameters
+     * like the signature base string, unless they've already been computed
+     * (for example, by calling getParameters). Other exceptions are thrown.
+     */
     public static void handleException(HttpServletResponse response,
             Exception e, String realm, boolean sendBody) throws IOException,
             ServletException {
         if (e instanceof OAuthProblemException) {
             OAuthProblemException problem = (OAuthProblemException) e;
-            Object httpCode = problem.getParameters().get(OAuthProblemException.HTTP_STATUS_CODE);
+            Object httpCode = problem.getParameter(OAuthProblemException.HTTP_STATUS_CODE);
             if (httpCode == null) {
                 httpCode = PROBLEM_TO_HTTP_CODE.get(problem.getProblem());
             }
@@ -88,7 +117,7 @@ public class OAuthServlet {
             response.reset();
             response.setStatus(Integer.parseInt(httpCode.toString()));
             OAuthMessage message = new OAuthMessage(null, null, problem
-                    .getParameters().entrySet());
+                    .getComputedParameters().entrySet());
             response.addHeader("WWW-Authenticate", message
                     .getAuthorizationHeader(realm));
             if (sendBody) {
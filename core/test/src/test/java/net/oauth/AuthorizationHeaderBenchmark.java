@@ -0,0 +1,85 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measure the time to parse a typical Authorization header, with
+ * OAuthMessage.decodeAuthorization and with the regular expressions it used
+ * to use. This isn't a unit test; run it like this:
+ *
+ * <pre>
+ * java -cp ... net.oauth.AuthorizationHeaderBenchmark [iterations]
+ * </pre>
+ */
+public class AuthorizationHeaderBenchmark {
+
+    static final String HEADER = "OAuth realm=\"http://sp.example.com/\","
+            + " oauth_consumer_key=\"0685bd9184jfhq22\","
+            + " oauth_token=\"ad180jjd733klru7\","
+            + " oauth_signature_method=\"HMAC-SHA1\","
+            + " oauth_signature=\"wOJIO9A2W5mFwDgiDvZbTSMK%2FPY%3D\","
+            + " oauth_timestamp=\"137131200\"," + " oauth_nonce=\"4572616e48616d6d65724c61686176\","
+            + " oauth_version=\"1.0\"";
+
+    public static void main(String[] args) throws Exception {
+        final int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        long regex = 0;
+        long parser = 0;
+        for (int round = 0; round < 3; ++round) { // The first rounds warm up.
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                decodeWithRegex(HEADER);
+            }
+            regex = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                OAuthMessage.decodeAuthorization(HEADER);
+            }
+            parser = System.nanoTime() - start;
+        }
+        System.out.println("regex: " + (regex / iterations) + " nsec, parser: "
+                + (parser / iterations) + " nsec");
+    }
+
+    /** The way OAuthMessage.decodeAuthorization used to work. */
+    static List<OAuth.Parameter> decodeWithRegex(String authorization) {
+        List<OAuth.Parameter> into = new ArrayList<OAuth.Parameter>();
+        if (authorization != null) {
+            Matcher m = AUTHORIZATION.matcher(authorization);
+            if (m.matches()) {
+                if (OAuthMessage.AUTH_SCHEME.equalsIgnoreCase(m.group(1))) {
+                    for (String nvp : m.group(2).split("\\s*,\\s*")) {
+                        m = NVP.matcher(nvp);
+                        if (m.matches()) {
+                            String name = OAuth.decodePercent(m.group(1));
+                            String value = OAuth.decodePercent(m.group(2));
+                            into.add(new OAuth.Parameter(name, value));
+                        }
+                    }
+                }
+            }
+        }
+        return into;
+    }
+
+    private static final Pattern AUTHORIZATION = Pattern.compile("\\s*(\\w*)\\s+(.*)");
+    private static final Pattern NVP = Pattern.compile("(\\S*)\\s*\\=\\s*\"([^\"]*)\"");
+
+}
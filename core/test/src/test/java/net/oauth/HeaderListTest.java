@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+public class HeaderListTest extends TestCase {
+
+    public void testGetValue() {
+        HeaderList headers = new HeaderList();
+        assertNull(headers.getValue("Content-Type"));
+        headers.add(new OAuth.Parameter("Content-Type", "text/plain"));
+        headers.add(new OAuth.Parameter("Accept", "*/*"));
+        headers.add(new OAuth.Parameter("content-type", "text/html"));
+        headers.add(new OAuth.Parameter(null, "HTTP/1.1 200 OK"));
+        assertEquals("text/html", headers.getValue("CONTENT-TYPE"));
+        assertEquals("*/*", headers.getValue("accept"));
+        assertEquals("HTTP/1.1 200 OK", headers.getValue(null));
+        assertNull(headers.getValue("Content-Length"));
+        headers.set(2, new OAuth.Parameter("Content-Length", "0"));
+        assertEquals("text/plain", headers.getValue("Content-Type"));
+        assertEquals("0", headers.getValue("Content-Length"));
+        headers.add(0, new OAuth.Parameter("Accept", "text/*"));
+        assertEquals("*/*", headers.getValue("Accept"));
+        assertEquals("*/*", headers.removeHeaders("ACCEPT"));
+        assertNull(headers.getValue("Accept"));
+        assertNull(headers.removeHeaders("Accept"));
+        assertEquals(3, headers.size());
+        headers.clear();
+        assertNull(headers.getValue("Content-Type"));
+    }
+
+    public void testMany() {
+        HeaderList headers = new HeaderList();
+        List<Map.Entry<String, String>> expected = new ArrayList<Map.Entry<String, String>>();
+        for (int i = 0; i < 100; ++i) {
+            OAuth.Parameter header = new OAuth.Parameter("X-Header-" + (i % 40), "" + i);
+            headers.add(header);
+            expected.add(header);
+            assertEquals("" + i, headers.getValue("x-header-" + (i % 40)));
+        }
+        assertEquals(expected, headers);
+        for (int i = 0; i < 40; ++i) {
+            assertEquals("" + (i + ((i < 20) ? 80 : 40)), headers.getValue("X-HEADER-" + i));
+        }
+        headers.remove(99);
+        assertEquals("59", headers.getValue("X-Header-19"));
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measure the time to add a nonce to a TimeBucketedNonceStore and to a
+ * MappedFileNonceStore, from several threads at once. This isn't a unit test;
+ * run it like this:
+ *
+ * <pre>
+ * java -cp ... net.oauth.NonceStoreBenchmark [threads] [nonces per thread]
+ * </pre>
+ */
+public class NonceStoreBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        final int nonces = (args.length > 1) ? Integer.parseInt(args[1]) : 200000;
+        File file = File.createTempFile("nonces", ".bin");
+        try {
+            file.delete();
+            MappedFileNonceStore mapped = new MappedFileNonceStore(file);
+            try {
+                long bucketed = 0;
+                long mappedFile = 0;
+                for (int round = 0; round < 3; ++round) { // The first rounds warm up.
+                    bucketed = run(new TimeBucketedNonceStore(), round, threads, nonces);
+                    mappedFile = run(mapped, round, threads, nonces);
+                }
+                final long adds = (long) threads * nonces;
+                System.out.println(threads + " threads, time bucketed: " + (bucketed / adds)
+                        + " nsec, mapped file: " + (mappedFile / adds) + " nsec");
+            } finally {
+                mapped.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Add distinct nonces, 1000 per second of timestamps, releasing those
+     * older than 10 seconds.
+     *
+     * @return the elapsed time, in nanoseconds
+     */
+    private static long run(final NonceStore store, final int round, int threads, final int nonces)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; ++t) {
+            final String token = round + "-" + t;
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        final long first = 1000000L * round;
+                        for (int n = 0; n < nonces; ++n) {
+                            final long timestamp = first + (n / 1000);
+                            if (n % 1000 == 0) {
+                                store.removeOlderThan(timestamp - 10);
+                            }
+                            store.add(timestamp, "n" + n, "c", token);
+                        }
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        final long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+
+}
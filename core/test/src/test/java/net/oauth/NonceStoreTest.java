@@ -0,0 +1,207 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oauth;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+public class NonceStoreTest extends TestCase {
+
+    public void testTimeBucketed() throws Exception {
+        testDuplicates(new TimeBucketedNonceStore());
+        testRemoval(new TimeBucketedNonceStore(), 1);
+        testRemoval(new TimeBucketedNonceStore(10), 10);
+        testConcurrency(new TimeBucketedNonceStore());
+    }
+
+    public void testMappedFile() throws Exception {
+        File file = File.createTempFile("nonces", ".bin");
+        try {
+            file.delete();
+            MappedFileNonceStore store = new MappedFileNonceStore(file, 1 << 14);
+            try {
+                testDuplicates(store);
+                testConcurrency(store);
+                assertTrue(store.add(2000, "n", "c", "t"));
+                assertNull(store.removeOlderThan(2001));
+                assertTrue("expired", store.add(2000, "n", "c", "t"));
+                assertTrue(store.add(2001, "n", "c", "t"));
+                // Another process, sharing the same file:
+                assertEquals("false true", addInOtherProcess(file, 2001, 2002));
+                assertFalse(store.add(2002, "n", "c", "t"));
+                // An interrupted thread can add a nonce, without closing the file:
+                Thread.currentThread().interrupt();
+                assertTrue(store.add(2002, "interrupted", "c", "t"));
+                assertTrue(Thread.interrupted());
+                assertFalse(store.add(2002, "interrupted", "c", "t"));
+            } finally {
+                store.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testMappedFileFull() throws Exception {
+        File file = File.createTempFile("nonces", ".bin");
+        try {
+            file.delete();
+            MappedFileNonceStore store = new MappedFileNonceStore(file, 1);
+            try {
+                assertTrue(store.add(2000, "a", "c", "t"));
+                assertFalse(store.add(2000, "a", "c", "t"));
+                assertFalse("full", store.add(2001, "b", "c", "t"));
+                assertFalse(store.add(2000, "a", "c", "t"));
+                store.removeOlderThan(2001); // a expires
+                assertTrue(store.add(2001, "b", "c", "t"));
+                assertFalse(store.add(2001, "b", "c", "t"));
+            } finally {
+                store.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Add the nonce "n" with the given timestamps to the given file, in a
+     * separate JVM.
+     *
+     * @return the results of add, separated by spaces
+     */
+    private static String addInOtherProcess(File file, long... timestamps) throws Exception {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(NonceStoreTest.class.getName());
+        command.add(file.getPath());
+        for (long timestamp : timestamps) {
+            command.add(timestamp + "");
+        }
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        process.getOutputStream().close();
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        try {
+            String result = output.readLine();
+            assertEquals(0, process.waitFor());
+            return result;
+        } finally {
+            output.close();
+        }
+    }
+
+    /** Used by addInOtherProcess. */
+    public static void main(String[] args) throws Exception {
+        MappedFileNonceStore store = new MappedFileNonceStore(new File(args[0]), 1);
+        try {
+            StringBuilder results = new StringBuilder();
+            for (int a = 1; a < args.length; ++a) {
+                if (a > 1) {
+                    results.append(' ');
+                }
+                results.append(store.add(Long.parseLong(args[a]), "n", "c", "t"));
+            }
+            System.out.println(results);
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testBloomFilter() throws Exception {
+        final long age = 10 * 1000L; // so a generation is 21 seconds
+        BloomFilterNonceStore store = new BloomFilterNonceStore(age, 100000, 0.000001);
+        testDuplicates(store);
+        assertEquals(128, store.getAddedCount());
+        assertEquals(128, store.getRejectedCount());
+        testConcurrency(store);
+        assertEquals(128 + 2000, store.getAddedCount());
+
+        store = new BloomFilterNonceStore(age, 1000, 0.01);
+        assertEquals(2 * 1200, store.getMemorySize()); // 9.6 bits per nonce
+        assertNull(store.removeOlderThan(1000));
+        assertTrue(store.add(1000, "n", "c", "t"));
+        assertTrue(store.add(1010, "n", "c", "t"));
+        assertEquals(Long.valueOf(987), store.removeOlderThan(1000));
+        assertFalse(store.add(1000, "n", "c", "t"));
+        assertEquals(Long.valueOf(1008), store.removeOlderThan(1010));
+        assertTrue("removed", store.add(1000, "n", "c", "t"));
+        assertTrue(store.add(1030, "n", "c", "t"));
+        assertFalse("too old", store.add(1000, "x", "c", "t"));
+        assertNull(store.removeOlderThan(2000));
+    }
+
+    private static void testDuplicates(NonceStore store) {
+        final String[] values = { null, "", "a", "a&b" };
+        for (String nonce : values)
+            for (String consumerKey : values)
+                for (String token : values) {
+                    assertTrue(store.add(1000, nonce, consumerKey, token));
+                    assertTrue(store.add(1001, nonce, consumerKey, token));
+                }
+        for (String nonce : values)
+            for (String consumerKey : values)
+                for (String token : values) {
+                    assertFalse(store.add(1000, nonce, consumerKey, token));
+                    assertFalse(store.add(1001, nonce, consumerKey, token));
+                }
+    }
+
+    private static void testRemoval(NonceStore store, long bucketSeconds) {
+        assertNull(store.removeOlderThan(1000));
+        assertTrue(store.add(1000, "n", "c", "t"));
+        assertTrue(store.add(1000 + bucketSeconds, "n", "c", "t"));
+        assertEquals(Long.valueOf(1000), store.removeOlderThan(1000));
+        assertFalse(store.add(1000, "n", "c", "t"));
+        assertEquals(Long.valueOf(1000 + bucketSeconds), store.removeOlderThan(1000 + bucketSeconds));
+        assertTrue("removed", store.add(1000, "n", "c", "t"));
+        assertNull(store.removeOlderThan(1000 + (2 * bucketSeconds)));
+    }
+
+    /** Many threads add the same nonces; exactly one of them succeeds for each nonce. */
+    private static void testConcurrency(final NonceStore store) throws Exception {
+        final int threads = 8;
+        final int nonces = 2000;
+        final AtomicInteger added = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; ++t) {
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int n = 0; n < nonces; ++n) {
+                            if (store.add(1000 + (n % 7), "n" + n, "c", null)) {
+                                added.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(nonces, added.get());
+    }
+
+}
@@ -38,4 +38,56 @@ public class OAuthMessageTest extends TestCase
             assertEquals(label, expected, message.getAuthorizationHeader(realm));
         }
     }
+
+    private static final String[][] DECODE_HEADERS =
+    // label, header, expected parameters
+    { { "null", null, "" } //
+            , { "typical", AuthorizationHeaderBenchmark.HEADER, null } //
+            , { "scheme case", " oauth\ta=\"1\"", "a=1" } //
+            , { "other scheme", "Basic a=\"1\"", "" } //
+            , { "longer scheme", "OAuth2 a=\"1\"", "" } //
+            , { "no parameters", "OAuth", "" } //
+            , { "whitespace", "OAuth  a = \"1\" ,b=\"\"  ,  c=\" 3 \" ", "a=1&b=&c=%203%20" } //
+            , { "empty parameters", "OAuth ,a=\"1\",, ,b=\"2\",", "a=1&b=2" } //
+            , { "quoted comma", "OAuth realm=\"a, b\", c=\"3\"", "realm=a%2C%20b&c=3" } //
+            , { "decoded", "OAuth a%20b=\"c%2Cd+e\"", "a%20b=c%2Cd%20e" } //
+            , { "malformed", "OAuth a, b=1, c=\"3\" x, d=\"4\"", "d=4" } //
+            , { "malformed quote", "OAuth a=b\", c=\"3\", d=\"4\"", "c=3&d=4" } //
+            , { "unterminated", "OAuth a=\"1\", b=\"2", "a=1" } //
+            , { "escaped quote", "OAuth a=\"x\\\"y\", b=\"\\\"\", c=\"3\"", "a=x%22y&b=%22&c=3" } //
+            , { "escaped backslash", "OAuth a=\"x\\\\\", b=\"\\y\"", "a=x%5C&b=y" } //
+            , { "escaped end", "OAuth a=\"1\", b=\"2\\\"", "a=1" } //
+    };
+
+    public void testDecodeAuthorization() throws Exception
+    {
+        for (String[] testCase : DECODE_HEADERS) {
+            String label = testCase[0];
+            String header = testCase[1];
+            List<OAuth.Parameter> expected = (testCase[2] == null)
+                    ? AuthorizationHeaderBenchmark.decodeWithRegex(header)
+                    : OAuth.decodeForm(testCase[2]);
+            assertEquals(label, expected, OAuthMessage.decodeAuthorization(header));
+        }
+        assertEquals(8, OAuthMessage.decodeAuthorization(AuthorizationHeaderBenchmark.HEADER).size());
+    }
+
+    public void testGetParameter() throws Exception
+    {
+        OAuthMessage message = new OAuthMessage("GET", "http://example.com/",
+                OAuth.newList("a", "1", "a", "2"));
+        assertEquals("1", message.getParameter("a"));
+        assertNull(message.getParameter("b"));
+        message.addParameter("b", "3");
+        assertEquals("3", message.getParameter("b"));
+        message.addParameter("a", "4");
+        message.addParameters(OAuth.newList("b", "5", "c", "6", "c", "7"));
+        assertEquals("1", message.getParameter("a"));
+        assertEquals("3", message.getParameter("b"));
+        assertEquals("6", message.getParameter("c"));
+        message.addParameter(new OAuth.Parameter(null, "8"));
+        assertEquals("8", message.getParameter(null));
+        assertEquals(OAuth.newMap(message.getParameters()), message.getParameterMap());
+        message.requireParameters("a", "b", "c");
+    }
 }
@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.Callable;
+import junit.framework.TestCase;
+
+public class OAuthProblemExceptionTest extends TestCase {
+
+    public void testRejection() {
+        OAuthProblemException problem = OAuthProblemException.newRejection(OAuth.Problems.NONCE_USED);
+        assertEquals(0, problem.getStackTrace().length);
+        assertEquals(OAuth.Problems.NONCE_USED, problem.getProblem());
+        assertEquals(OAuth.Problems.NONCE_USED, problem.getMessage());
+        assertEquals(200, problem.getHttpStatusCode());
+        assertEquals(OAuth.Problems.NONCE_USED, problem.getParameters().get(OAuthProblemException.OAUTH_PROBLEM));
+        assertTrue(new OAuthProblemException(OAuth.Problems.NONCE_USED).getStackTrace().length > 0);
+    }
+
+    public void testLazyParameter() throws Exception {
+        final int[] calls = { 0 };
+        OAuthProblemException problem = OAuthProblemException.newRejection(OAuth.Problems.SIGNATURE_INVALID);
+        problem.setLazyParameter("lazy", new Callable<String>() {
+            public String call() {
+                ++calls[0];
+                return "value";
+            }
+        });
+        problem.setLazyParameter("failed", new Callable<String>() {
+            public String call() {
+                throw new IllegalStateException("failed");
+            }
+        });
+        assertEquals(OAuth.Problems.SIGNATURE_INVALID, problem.getProblem());
+        problem.setParameter(OAuthProblemException.HTTP_STATUS_CODE, 401);
+        assertEquals(OAuth.Problems.SIGNATURE_INVALID, problem.getProblem());
+        assertEquals(401, problem.getHttpStatusCode());
+        assertEquals(401, problem.getParameter(OAuthProblemException.HTTP_STATUS_CODE));
+        assertEquals(0, calls[0]);
+        assertFalse(problem.getComputedParameters().containsKey("lazy"));
+        assertEquals(0, calls[0]);
+        assertEquals("value", problem.getParameters().get("lazy"));
+        assertEquals("value", problem.getComputedParameters().get("lazy"));
+        assertFalse(problem.getParameters().containsKey("failed"));
+        assertEquals(1, calls[0]);
+        problem.setLazyParameter("lazy", new Callable<String>() {
+            public String call() {
+                return "replaced";
+            }
+        });
+        problem.setParameter("failed", "set");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(problem);
+        out.close();
+        OAuthProblemException copy = (OAuthProblemException) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals("replaced", copy.getParameters().get("lazy"));
+        assertEquals("set", copy.getParameters().get("failed"));
+        assertEquals(OAuth.Problems.SIGNATURE_INVALID, copy.getProblem());
+    }
+
+}
@@ -35,6 +35,7 @@ public class OAuthTest extends TestCase {
             , "DEL", "\u007F", "%7F" //
             , "Latin", "\u0080", "%C2%80" //
             , "CJK", "\u3001", "%E3%80%81" //
+            , "supplementary", "\uD834\uDD1E", "%F0%9D%84%9E" //
     };
 
     private static final String[] FLEXIBLE =
@@ -62,6 +63,36 @@ public class OAuthTest extends TestCase {
             fail(errors.toString());
     }
 
+    public void testEncodeInto() throws Exception {
+        final String unreserved = "aZ09-._~";
+        assertSame(unreserved, OAuth.percentEncode(unreserved));
+        assertSame(unreserved, OAuth.decodePercent(unreserved));
+        assertEquals("xx%20%C3%A9", OAuth.percentEncode("x \u00e9", new StringBuilder("x")).toString());
+        StringBuffer appendable = new StringBuffer();
+        OAuth.percentEncode("a&\u00e9\u3001\uD834\uDD1E", appendable);
+        assertEquals("a%26%C3%A9%E3%80%81%F0%9D%84%9E", appendable.toString());
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        OAuth.percentEncode("a&\u3001\uD834\uDD1E", bytes);
+        assertEquals("a%26%E3%80%81%F0%9D%84%9E", new String(bytes.toByteArray(), "US-ASCII"));
+        assertEquals("xa b", OAuth.decodePercent("a+%62", new StringBuilder("x")).toString());
+        for (String malformed : new String[] { "%", "a%4", "%4g" }) {
+            try {
+                OAuth.decodePercent(malformed);
+                fail(malformed);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    public void testEncodedParameter() throws Exception {
+        OAuth.Parameter parameter = new OAuth.Parameter("a b", "c&d");
+        assertEquals("a%20b", parameter.getEncodedKey());
+        assertSame(parameter.getEncodedValue(), OAuth.percentEncodeValue(parameter));
+        assertEquals("a%20b=c%26d", OAuth.formEncode(OAuth.newList("x", null, "a b", "c&d")).substring(3));
+        parameter.setValue("e=f");
+        assertEquals("a%20b=e%3Df", parameter.toString());
+    }
+
     public void testDecodeStandard() {
         testDecode(STANDARD);
     }
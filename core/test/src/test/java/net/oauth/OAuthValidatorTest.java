@@ -15,6 +15,20 @@
  */
 package net.oauth;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import junit.framework.TestCase;
 
 /**
@@ -102,6 +116,254 @@ public class OAuthValidatorTest extends TestCase {
             message.addParameter(name, value);
     }
 
+    public void testReleaseGarbageInBackground() throws Exception {
+        final Thread requestThread = Thread.currentThread();
+        final List<Thread> removers = Collections.synchronizedList(new ArrayList<Thread>());
+        validator = new SimpleOAuthValidator(SimpleOAuthValidator.DEFAULT_TIMESTAMP_WINDOW, 1.0,
+                new TimeBucketedNonceStore() {
+                    @Override
+                    public Long removeOlderThan(long minTimestamp) {
+                        removers.add(Thread.currentThread());
+                        return super.removeOlderThan(minTimestamp);
+                    }
+                });
+        tryTime(currentTimeMsec);
+        assertEquals(Collections.singletonList(requestThread), removers);
+        validator.startReleasingGarbage(1);
+        try {
+            removers.clear();
+            for (int i = 0; i < 100 && removers.isEmpty(); ++i) {
+                Thread.sleep(10);
+            }
+            assertFalse("released in background", removers.isEmpty());
+            removers.clear();
+            tryTime(currentTimeMsec + 1000);
+            assertFalse(removers.contains(requestThread));
+        } finally {
+            validator.stopReleasingGarbage();
+        }
+        removers.clear();
+        tryTime(currentTimeMsec + 2000);
+        assertTrue(removers.contains(requestThread));
+    }
+
+    /** A failure to release garbage, even an Error, is reported and doesn't stop releasing. */
+    public void testReleaseGarbageFails() throws Exception {
+        final AtomicInteger releases = new AtomicInteger();
+        final List<Throwable> uncaught = Collections.synchronizedList(new ArrayList<Throwable>());
+        final IllegalStateException failure = new IllegalStateException("release failed");
+        final AssertionError error = new AssertionError("release erred");
+        validator = new SimpleOAuthValidator() {
+            @Override
+            public Date releaseGarbage() {
+                switch (releases.incrementAndGet()) {
+                case 1:
+                    throw failure;
+                case 2:
+                    throw error;
+                }
+                return super.releaseGarbage();
+            }
+        };
+        Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            public void uncaughtException(Thread t, Throwable e) {
+                uncaught.add(e);
+            }
+        });
+        try {
+            validator.startReleasingGarbage(1);
+            for (int i = 0; i < 100 && releases.get() < 3; ++i) {
+                Thread.sleep(10);
+            }
+        } finally {
+            validator.stopReleasingGarbage();
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+        }
+        assertTrue("released after a failure", releases.get() >= 3);
+        assertEquals(Arrays.asList(failure, error), uncaught);
+    }
+
+    public void testAsync() throws Exception {
+        OAuthAccessor accessor = new OAuthAccessor(new OAuthConsumer(null, "ck", "cs", null));
+        OAuthMessage message = new OAuthMessage("GET", "http://provider.example.net/", OAuth.newList(
+                OAuth.OAUTH_CONSUMER_KEY, "ck", OAuth.OAUTH_SIGNATURE_METHOD, OAuth.HMAC_SHA1,
+                OAuth.OAUTH_TIMESTAMP, (currentTimeMsec / 1000) + "", OAuth.OAUTH_NONCE, "n"));
+        ExecutorService executor = CryptoExecutor.newExecutor(1, 1);
+        try {
+            assertSame(message, message.signAsync(accessor, executor).get());
+            assertNotNull(message.getSignature());
+            assertNull(validator.validateMessageAsync(message, accessor, executor).get());
+            try {
+                validator.validateMessageAsync(message, accessor).get();
+                fail("nonce used");
+            } catch (ExecutionException expected) {
+                assertEquals(OAuth.Problems.NONCE_USED, ((OAuthProblemException) expected.getCause()).getProblem());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testSaturated() throws Exception {
+        OAuthAccessor accessor = new OAuthAccessor(new OAuthConsumer(null, "ck", "cs", null));
+        OAuthMessage message = new OAuthMessage("GET", "http://provider.example.net/", OAuth.newList(
+                OAuth.OAUTH_CONSUMER_KEY, "ck", OAuth.OAUTH_SIGNATURE_METHOD, OAuth.HMAC_SHA1,
+                OAuth.OAUTH_TIMESTAMP, (currentTimeMsec / 1000) + "", OAuth.OAUTH_NONCE, "n"));
+        message.sign(accessor);
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<Void> blocker = new Callable<Void>() {
+            public Void call() throws Exception {
+                release.await();
+                return null;
+            }
+        };
+        ExecutorService executor = CryptoExecutor.newExecutor(1, 1);
+        try {
+            executor.submit(blocker);
+            executor.submit(blocker);
+            try {
+                validator.validateMessageAsync(message, accessor, executor);
+                fail("saturated executor accepted a task");
+            } catch (RejectedExecutionException expected) {
+            }
+            // A batch is verified in this thread instead:
+            List<Exception> results = validator.validateMessages(Collections.singletonList(message), Collections
+                    .singletonList(accessor), executor);
+            assertEquals(Collections.singletonList((Exception) null), results);
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    /** A batch can be validated in a thread of the executor it uses. */
+    public void testBatchInExecutor() throws Exception {
+        final OAuthAccessor accessor = new OAuthAccessor(new OAuthConsumer(null, "ck", "cs", null));
+        final List<OAuthMessage> messages = new ArrayList<OAuthMessage>();
+        for (int m = 0; m < 4; ++m) {
+            OAuthMessage message = new OAuthMessage("GET", "http://provider.example.net/", OAuth.newList(
+                    OAuth.OAUTH_CONSUMER_KEY, "ck", OAuth.OAUTH_SIGNATURE_METHOD, OAuth.HMAC_SHA1,
+                    OAuth.OAUTH_TIMESTAMP, (currentTimeMsec / 1000) + "", OAuth.OAUTH_NONCE, "n" + m));
+            message.sign(accessor);
+            messages.add(message);
+        }
+        final ExecutorService executor = CryptoExecutor.newExecutor(1, 8);
+        try {
+            Future<List<Exception>> results = executor.submit(new Callable<List<Exception>>() {
+                public List<Exception> call() throws Exception {
+                    return validator.validateMessages(messages, Collections.nCopies(messages.size(), accessor),
+                            executor);
+                }
+            });
+            assertEquals(Collections.nCopies(messages.size(), null), results.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testBatch() throws Exception {
+        OAuthAccessor accessor = new OAuthAccessor(new OAuthConsumer(null, "ck", "cs", null));
+        List<OAuthMessage> messages = new ArrayList<OAuthMessage>();
+        for (int m = 0; m < 50; ++m) {
+            OAuthMessage message = new OAuthMessage("POST", "http://provider.example.net/", OAuth.newList(
+                    OAuth.OAUTH_CONSUMER_KEY, "ck", OAuth.OAUTH_SIGNATURE_METHOD, OAuth.HMAC_SHA1,
+                    OAuth.OAUTH_TIMESTAMP, (currentTimeMsec / 1000) + "", OAuth.OAUTH_NONCE, "n" + (m % 40)));
+            message.sign(accessor);
+            messages.add(message);
+        }
+        messages.get(1).addParameter("tampered", "");
+        messages.get(2).addParameter(OAuth.OAUTH_VERSION, "2.0");
+        List<Exception> results = validator.validateMessages(messages, Collections.nCopies(messages.size(),
+                accessor));
+        assertEquals(messages.size(), results.size());
+        for (int m = 0; m < messages.size(); ++m) {
+            OAuthProblemException problem = (OAuthProblemException) results.get(m);
+            if (m == 1) {
+                assertEquals(OAuth.Problems.SIGNATURE_INVALID, problem.getProblem());
+            } else if (m == 2) {
+                assertEquals(OAuth.Problems.VERSION_REJECTED, problem.getProblem());
+            } else if (m >= 40 && m != 42) { // message 2 was rejected before its nonce was used
+                assertEquals(OAuth.Problems.NONCE_USED, problem.getProblem());
+            } else {
+                assertNull(m + " " + problem, problem);
+            }
+        }
+    }
+
+    public void testSinglePass() throws Exception {
+        OAuthAccessor accessor = new OAuthAccessor(new OAuthConsumer(null, "ck", "cs", null));
+        final String now = (currentTimeMsec / 1000) + "";
+        String[] variations = { "", "&oauth_version=1.0", "&oauth_version=1.00", "&oauth_version=2.0",
+                "&oauth_nonce=again", "&oauth_token=t&oauth_token=t", "&oauth_callback=a&oauth_callback=b",
+                "&oauth_timestamp=1", "&oauth_timestamp=%2B" + now, "&oauth_timestamp=x", "&tampered=1" };
+        validator.setSinglePass(true);
+        SimpleOAuthValidator hooked = new SimpleOAuthValidator() {
+            @Override
+            protected long currentTimeMsec() {
+                return currentTimeMsec;
+            }
+        };
+        for (String variation : variations) {
+            String[] results = new String[2];
+            SimpleOAuthValidator[] validators = { validator, hooked };
+            for (int v = 0; v < validators.length; ++v) {
+                OAuthMessage message = new OAuthMessage("GET", "http://provider.example.net/", OAuth.newList(
+                        OAuth.OAUTH_CONSUMER_KEY, "ck", OAuth.OAUTH_SIGNATURE_METHOD, OAuth.HMAC_SHA1));
+                List<OAuth.Parameter> extra = OAuth.decodeForm(variation.replace("&tampered=1", ""));
+                if (OAuth.newMap(extra).get(OAuth.OAUTH_TIMESTAMP) == null) {
+                    message.addParameter(OAuth.OAUTH_TIMESTAMP, now);
+                }
+                if (OAuth.newMap(extra).get(OAuth.OAUTH_NONCE) == null) {
+                    message.addParameter(OAuth.OAUTH_NONCE, "n" + variation);
+                }
+                message.addParameters(extra);
+                message.sign(accessor);
+                if (variation.contains("tampered")) {
+                    message.addParameter("tampered", "1");
+                }
+                try {
+                    validators[v].validateMessage(message, accessor);
+                    results[v] = "valid";
+                } catch (OAuthProblemException e) {
+                    results[v] = e.getProblem() + " " + e.getParameters();
+                } catch (NumberFormatException e) {
+                    results[v] = e.toString();
+                }
+                if (variation.contains("again")) { // Validate it again:
+                    try {
+                        validators[v].validateMessage(message, accessor);
+                        results[v] += " valid";
+                    } catch (OAuthProblemException e) {
+                        results[v] += " " + e.getProblem();
+                    }
+                }
+            }
+            assertEquals(variation, results[1], results[0]);
+        }
+    }
+
+    /** An overridden validateNonce is called in single pass mode, too. */
+    public void testSinglePassValidateNonce() throws Exception {
+        OAuthAccessor accessor = new OAuthAccessor(new OAuthConsumer(null, "ck", "cs", null));
+        final List<String> nonces = new ArrayList<String>();
+        validator = new SimpleOAuthValidator() {
+            @Override
+            protected Date validateNonce(OAuthMessage message, long timestamp, long currentTimeMsec)
+                    throws IOException, OAuthProblemException {
+                nonces.add(message.getParameter(OAuth.OAUTH_NONCE));
+                return super.validateNonce(message, timestamp, currentTimeMsec);
+            }
+        };
+        validator.setSinglePass(true);
+        OAuthMessage message = new OAuthMessage("GET", "http://provider.example.net/", OAuth.newList(
+                OAuth.OAUTH_CONSUMER_KEY, "ck", OAuth.OAUTH_SIGNATURE_METHOD, OAuth.HMAC_SHA1,
+                OAuth.OAUTH_TIMESTAMP, (System.currentTimeMillis() / 1000) + "", OAuth.OAUTH_NONCE, "n"));
+        message.sign(accessor);
+        validator.validateMessage(message, accessor);
+        assertEquals(Collections.singletonList("n"), nonces);
+    }
+
     public void testTimeRange() throws Exception {
         final long window = SimpleOAuthValidator.DEFAULT_TIMESTAMP_WINDOW;
         tryTime(currentTimeMsec - window - 500); // round up
@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import junit.framework.TestCase;
+import net.oauth.OAuth;
+import net.oauth.OAuthMessage;
+
+public class HttpRequestMessageTest extends TestCase {
+
+    public void testForm() throws Exception {
+        Request request = new Request("a=1&b=%20", OAuth.FORM_ENCODED + "; charset=UTF-8", "c=3&d=4");
+        OAuthMessage message = OAuthServlet.getMessage(request.proxy(), "http://example.com/x?y", 100);
+        assertEquals("http://example.com/x", message.URL);
+        assertEquals(OAuth.decodeForm("oauth_token=t&a=1&b=%20&c=3&d=4"), message.getParameters());
+        assertEquals("t", message.getToken());
+        assertEquals("example.com", message.getHeader("Host"));
+    }
+
+    public void testOtherBody() throws Exception {
+        Request request = new Request(null, "application/json", "{\"c\": 3}");
+        OAuthMessage message = OAuthServlet.getMessage(request.proxy(), "http://example.com/", 4);
+        assertEquals(OAuth.decodeForm("oauth_token=t"), message.getParameters());
+        assertEquals(8, request.body.available()); // unread
+        assertEquals("{\"c\": 3}", message.readBodyAsString());
+    }
+
+    public void testMaxFormLength() throws Exception {
+        for (int contentLength : new int[] { -1, 7 }) {
+            Request request = new Request(null, OAuth.FORM_ENCODED, "c=3&d=4");
+            request.contentLength = contentLength;
+            assertEquals(OAuth.decodeForm("oauth_token=t&c=3&d=4"), OAuthServlet.getMessage(
+                    request.proxy(), "http://example.com/", 7).getParameters());
+            request = new Request(null, OAuth.FORM_ENCODED, "c=3&d=4");
+            request.contentLength = contentLength;
+            OAuthMessage message = OAuthServlet.getMessage(request.proxy(), "http://example.com/", 6);
+            for (int i = 0; i < 2; ++i) { // The body can't be read again.
+                try {
+                    message.getParameters();
+                    fail("contentLength " + contentLength);
+                } catch (IOException expected) {
+                }
+            }
+        }
+    }
+
+    public void testCharacterEncoding() throws Exception {
+        Request request = new Request(null, OAuth.FORM_ENCODED, "c=\u00e9&d=%C3%A9");
+        request.encoding = "UTF-8";
+        assertEquals(OAuth.newList("oauth_token", "t", "c", "\u00e9", "d", "\u00e9"), OAuthServlet
+                .getMessage(request.proxy(), "http://example.com/", 100).getParameters());
+        request = new Request(null, OAuth.FORM_ENCODED, "c=\u00e9");
+        request.encoding = null;
+        assertEquals(OAuth.newList("oauth_token", "t", "c", "\u00c3\u00a9"), OAuthServlet
+                .getMessage(request.proxy(), "http://example.com/", 100).getParameters());
+    }
+
+    /** A servlet request, without getParameterMap. */
+    private static class Request implements InvocationHandler {
+
+        Request(String query, String contentType, String body) throws IOException {
+            this.query = query;
+            this.contentType = contentType;
+            byte[] bytes = body.getBytes("UTF-8");
+            this.body = new ByteArrayInputStream(bytes);
+            this.contentLength = bytes.length;
+        }
+
+        final String query;
+        final String contentType;
+        final ByteArrayInputStream body;
+        int contentLength;
+        String encoding = "UTF-8";
+
+        HttpServletRequest proxy() {
+            return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { HttpServletRequest.class }, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getMethod")) {
+                return "POST";
+            } else if (name.equals("getQueryString")) {
+                return query;
+            } else if (name.equals("getContentType")) {
+                return contentType;
+            } else if (name.equals("getCharacterEncoding")) {
+                return encoding;
+            } else if (name.equals("getContentLength")) {
+                return contentLength;
+            } else if (name.equals("getInputStream")) {
+                return new ServletInputStream() {
+                    public int read() {
+                        return body.read();
+                    }
+                };
+            } else if (name.equals("getHeaderNames")) {
+                return Collections.enumeration(Collections.singletonList("Host"));
+            } else if (name.equals("getHeaders")) {
+                if ("Authorization".equalsIgnoreCase((String) args[0])) {
+                    return Collections.enumeration(Collections.singletonList(
+                            "OAuth realm=\"r\", oauth_token=\"t\""));
+                }
+                return Collections.enumeration(Collections.singletonList("example.com"));
+            }
+            throw new UnsupportedOperationException(name);
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth.server;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import junit.framework.TestCase;
+import net.oauth.OAuth;
+import net.oauth.OAuthAccessor;
+import net.oauth.OAuthConsumer;
+import net.oauth.OAuthMessage;
+import net.oauth.OAuthProblemException;
+import net.oauth.signature.OAuthSignatureMethod;
+
+public class OAuthServletTest extends TestCase {
+
+    /** The signature base string is sent only if it was already computed. */
+    public void testSignatureInvalid() throws Exception {
+        OAuthAccessor accessor = new OAuthAccessor(new OAuthConsumer(null, "ck", "cs", null));
+        OAuthMessage message = new OAuthMessage("GET", "http://provider.example.net/", OAuth.newList(
+                OAuth.OAUTH_CONSUMER_KEY, "ck", OAuth.OAUTH_SIGNATURE_METHOD, OAuth.HMAC_SHA1,
+                OAuth.OAUTH_SIGNATURE, "wrong"));
+        OAuthProblemException problem = null;
+        try {
+            OAuthSignatureMethod.newSigner(message, accessor).validate(message);
+            fail("signature was valid");
+        } catch (OAuthProblemException expected) {
+            problem = expected;
+        }
+        Response response = new Response();
+        OAuthServlet.handleException(response.proxy(), problem, "realm");
+        assertEquals(401, response.status);
+        String authenticate = response.headers.get("WWW-Authenticate");
+        assertTrue(authenticate, authenticate.contains("oauth_problem=\"signature_invalid\""));
+        assertFalse(authenticate, authenticate.contains("oauth_signature_base_string"));
+        assertFalse(response.body.toString("UTF-8").contains("oauth_signature_base_string"));
+
+        assertNotNull(problem.getParameters().get("oauth_signature_base_string"));
+        response = new Response();
+        OAuthServlet.handleException(response.proxy(), problem, "realm");
+        assertTrue(response.headers.get("WWW-Authenticate").contains("oauth_signature_base_string"));
+        assertTrue(response.body.toString("UTF-8").contains("oauth_signature_base_string"));
+    }
+
+    private static class Response implements InvocationHandler {
+
+        int status;
+        final Map<String, String> headers = new HashMap<String, String>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        HttpServletResponse proxy() {
+            return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { HttpServletResponse.class }, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("reset") || name.equals("resetBuffer")) {
+                body.reset();
+                return null;
+            } else if (name.equals("setStatus")) {
+                status = (Integer) args[0];
+                return null;
+            } else if (name.equals("addHeader")) {
+                headers.put((String) args[0], (String) args[1]);
+                return null;
+            } else if (name.equals("setContentType")) {
+                return null;
+            } else if (name.equals("getOutputStream")) {
+                return new ServletOutputStream() {
+                    public void write(int b) {
+                        body.write(b);
+                    }
+                };
+            }
+            throw new UnsupportedOperationException(name);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth.signature;
+
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+public class Base64Test extends TestCase {
+
+    private static final String[][] VECTORS = { // from RFC 4648
+    { "", "" }, { "f", "Zg==" }, { "fo", "Zm8=" }, { "foo", "Zm9v" }, { "foob", "Zm9vYg==" },
+            { "fooba", "Zm9vYmE=" }, { "foobar", "Zm9vYmFy" } };
+
+    public void testEncode() throws Exception {
+        for (String[] vector : VECTORS) {
+            byte[] data = vector[0].getBytes("US-ASCII");
+            assertEquals(vector[1], Base64.encode(data));
+            assertEquals(vector[1].length(), Base64.encodedLength(data.length));
+            StringBuilder into = new StringBuilder("x");
+            Base64.encode(data, 0, data.length, into);
+            assertEquals("x" + vector[1], into.toString());
+            byte[] ascii = new byte[vector[1].length() + 1];
+            assertEquals(vector[1].length(), Base64.encode(data, 0, data.length, ascii, 1));
+            assertEquals(vector[1], new String(ascii, 1, vector[1].length(), "US-ASCII"));
+        }
+    }
+
+    public void testDecode() throws Exception {
+        for (String[] vector : VECTORS) {
+            byte[] data = vector[0].getBytes("US-ASCII");
+            assertTrue(vector[1], Arrays.equals(data, Base64.decode(vector[1])));
+            assertTrue(vector[1], Base64.equals(data, 0, data.length, vector[1]));
+        }
+        // Characters outside the alphabet are ignored:
+        assertEquals("foobar", new String(Base64.decode("Zm9v\r\nYm Fy"), "US-ASCII"));
+        assertEquals("fo", new String(Base64.decode("Zm8=Zm9v"), "US-ASCII"));
+    }
+
+    public void testEquals() throws Exception {
+        byte[] data = new byte[256];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+        for (int length = 0; length < 24; ++length) {
+            String encoded = Base64.encode(subarray(data, 250 - length, length));
+            assertTrue(encoded, Base64.equals(data, 250 - length, length, encoded));
+            assertFalse(encoded, Base64.equals(data, 250 - length, length + 1, encoded));
+            if (length > 0) {
+                assertFalse(encoded, Base64.equals(data, 249 - length, length, encoded));
+                assertFalse(encoded, Base64.equals(data, 250 - length, length - 1, encoded));
+            }
+        }
+        String encoded = Base64.encode(data);
+        assertTrue(Arrays.equals(data, Base64.decode(encoded)));
+        assertTrue(Base64.equals(data, 0, data.length, encoded));
+    }
+
+    private static byte[] subarray(byte[] data, int offset, int length) {
+        byte[] sub = new byte[length];
+        System.arraycopy(data, offset, sub, 0, length);
+        return sub;
+    }
+
+}
@@ -22,6 +22,7 @@ import net.oauth.OAuth;
 import net.oauth.OAuthAccessor;
 import net.oauth.OAuthConsumer;
 import net.oauth.OAuthMessage;
+import net.oauth.OAuthProblemException;
 
 public class OAuthSignatureMethodTest extends TestCase {
 
@@ -160,6 +161,8 @@ public class OAuthSignatureMethodTest extends TestCase {
                     "egQqG5AJep5sJ7anhXju1unge2I=" },
             { "HMAC-SHA1", "HMAC-SHA1", "cs", "ts", "bs",
                     "VZVjXceV7JgPq/dOTnNmEfO0Fv8=" },
+            { "HMAC-SHA256", "HMAC-SHA256", "cs", "ts", "bs",
+                    "9HGKdfyP38c9+AtaEhdNhLubhigOrxSw0l46B8qgPso=" },
             { "OAuth A request", "PLAINTEXT", "kd94hf93k423kf44", null, null,
                     "kd94hf93k423kf44&" },
             { "OAuth A access", "HMAC-SHA1", "kd94hf93k423kf44",
@@ -208,4 +211,125 @@ public class OAuthSignatureMethodTest extends TestCase {
             fail(errors.toString());
     }
 
+    public void testSignerCache() throws Exception {
+        OAuthConsumer consumer = new OAuthConsumer(null, "ck", "cs", null);
+        OAuthAccessor accessor = new OAuthAccessor(consumer);
+        accessor.tokenSecret = "ts";
+        OAuthMessage message = new OAuthMessage("GET", "http://provider.example.net/", OAuth.newList(
+                OAuth.OAUTH_SIGNATURE_METHOD, "HMAC-SHA1"));
+        OAuthSignatureMethod signer = OAuthSignatureMethod.getSigner(message, accessor);
+        assertSame(signer, OAuthSignatureMethod.getSigner(message, accessor));
+        assertEquals("VZVjXceV7JgPq/dOTnNmEfO0Fv8=", signer.getSignature("bs"));
+        try {
+            signer.setTokenSecret("x");
+            fail("shared signer was modified");
+        } catch (IllegalStateException expected) {
+        }
+        accessor.tokenSecret = "other";
+        assertNotSame(signer, OAuthSignatureMethod.getSigner(message, accessor));
+        accessor.tokenSecret = "ts";
+        assertNotSame(signer, OAuthSignatureMethod.getSigner(message, new OAuthAccessor(
+                new OAuthConsumer(null, "ck", "cs", null))));
+        OAuthSignatureMethod.clearSigners();
+        OAuthSignatureMethod fresh = OAuthSignatureMethod.getSigner(message, accessor);
+        assertNotSame(signer, fresh);
+        assertEquals(signer.getSignature("bs"), fresh.getSignature("bs"));
+        // newSigner isn't shared, so it may be modified:
+        OAuthSignatureMethod unshared = OAuthSignatureMethod.newSigner(message, accessor);
+        assertNotSame(fresh, unshared);
+        assertNotSame(unshared, OAuthSignatureMethod.newSigner(message, accessor));
+        unshared.setTokenSecret("other");
+        assertFalse(fresh.getSignature("bs").equals(unshared.getSignature("bs")));
+    }
+
+    /** A shared HMAC signer computes correct signatures in concurrent threads. */
+    public void testConcurrentHmac() throws Exception {
+        final OAuthSignatureMethod signer = OAuthSignatureMethod.newMethod("HMAC-SHA1",
+                new OAuthAccessor(new OAuthConsumer(null, null, "cs", null)));
+        signer.setTokenSecret("ts");
+        final String[] errors = new String[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 500; ++i) {
+                            String actual = signer.getSignature("bs");
+                            if (!"VZVjXceV7JgPq/dOTnNmEfO0Fv8=".equals(actual)) {
+                                errors[0] = actual;
+                            }
+                        }
+                    } catch (Exception e) {
+                        errors[0] = e + "";
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(errors[0]);
+    }
+
+    public void testValidate() throws Exception {
+        OAuthAccessor accessor = new OAuthAccessor(new OAuthConsumer(null, "ck", "cs", null));
+        StringBuilder large = new StringBuilder();
+        while (large.length() < 100000) {
+            large.append("% \u00e9&=");
+        }
+        for (String value : new String[] { "v", large.toString() }) {
+            OAuthMessage message = new OAuthMessage("POST", "http://provider.example.net/?q=1",
+                    OAuth.newList("oauth_signature_method", "HMAC-SHA1", "p", value));
+            message.sign(accessor);
+            OAuthSignatureMethod signer = OAuthSignatureMethod.getSigner(message, accessor);
+            signer.validate(message);
+            String baseString = OAuthSignatureMethod.getBaseString(message);
+            assertEquals(signer.getSignature(baseString), message.getSignature());
+            message.addParameter("x", "tampered");
+            try {
+                signer.validate(message);
+                fail("tampered message was valid");
+            } catch (OAuthProblemException expected) {
+                assertEquals(OAuth.Problems.SIGNATURE_INVALID, expected.getProblem());
+                assertEquals(0, expected.getStackTrace().length);
+                assertEquals("HMAC-SHA1", expected.getParameters().get("oauth_signature_method"));
+                assertEquals(OAuthSignatureMethod.getBaseString(message), expected.getParameters().get(
+                        "oauth_signature_base_string"));
+            }
+        }
+    }
+
+    private static final String[] URLS = { "http://example.com", "HTTP://Example.COM:80/A/b",
+            "https://example.com:443", "https://example.com:80/", "http://example.com:443/",
+            "http://EXAMPLE.com:8080/path;p=1/%7Eme/", "http://localhost:080", "http://127.0.0.1:80/x",
+            "http://1.2.3.256:80/", "http://1.2.3.4.:80/", "http://a.1:80/", "http://a-.b/", "http://a_b:80/",
+            "http://example.com.:80/", "http://u@example.com:80/", "http://[::1]:80/", "http://h:/",
+            "http://h:123456/", "http://h/%7e/%", "http://h/a b", "http://h/\u00e9", "http://h/#f",
+            "ftp://example.com:21/", "mailto:a@example.com" };
+
+    public void testNormalizeUrl() throws Exception {
+        for (String url : URLS) {
+            String expected;
+            try {
+                expected = OAuthSignatureMethod.normalizeUri(url);
+            } catch (Exception e) {
+                expected = e.getClass().getName();
+            }
+            String fast = UrlNormalizer.normalize(url);
+            if (fast != null) {
+                assertEquals(url, expected, fast);
+            }
+            String actual;
+            try {
+                actual = OAuthSignatureMethod.normalizeUrl(url);
+            } catch (Exception e) {
+                actual = e.getClass().getName();
+            }
+            assertEquals(url, expected, actual);
+        }
+        assertEquals("http://example.com/a/b", UrlNormalizer.normalize("HTTP://Example.COM:80/a/b"));
+        assertEquals("https://127.0.0.1:8443/", UrlNormalizer.normalize("https://127.0.0.1:8443"));
+    }
+
 }
@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth.signature;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+
+/**
+ * Compare the time to sign and verify with RSA-SHA1 using pooled Signature
+ * objects (as RSA_SHA1 does) with getting and initializing a new Signature for
+ * each message. This isn't a unit test; run it like this:
+ *
+ * <pre>
+ * java -cp ... net.oauth.signature.RSA_SHA1Benchmark [iterations]
+ * </pre>
+ */
+public class RSA_SHA1Benchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        final byte[] baseString = ("POST&http%3A%2F%2Fprovider.example.net%2Fgadgets%2Fmakerequest&"
+                + "oauth_consumer_key%3Dexample.com%26oauth_nonce%3D7d8f3e4a%26"
+                + "oauth_signature_method%3DRSA-SHA1%26oauth_timestamp%3D1191242096%26"
+                + "oauth_version%3D1.0%26opensocial_owner_id%3D12345%26opensocial_viewer_id%3D12345")
+                .getBytes("US-ASCII");
+        for (int bits : new int[] { 1024, 2048 }) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(bits);
+            KeyPair keys = generator.generateKeyPair();
+            SignaturePool signers = new SignaturePool("SHA1withRSA", keys.getPrivate());
+            SignaturePool verifiers = new SignaturePool("SHA1withRSA", keys.getPublic());
+            byte[] signature = signers.sign(baseString, 0, baseString.length);
+            for (int round = 0; round < 3; ++round) { // The first rounds warm up.
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; ++i) {
+                    Signature signer = Signature.getInstance("SHA1withRSA");
+                    signer.initSign(keys.getPrivate());
+                    signer.update(baseString);
+                    signer.sign();
+                }
+                long unpooledSign = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; ++i) {
+                    signers.sign(baseString, 0, baseString.length);
+                }
+                long pooledSign = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; ++i) {
+                    Signature verifier = Signature.getInstance("SHA1withRSA");
+                    verifier.initVerify(keys.getPublic());
+                    verifier.update(baseString);
+                    verifier.verify(signature);
+                }
+                long unpooledVerify = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; ++i) {
+                    verifiers.verify(signature, signature.length, baseString, 0, baseString.length);
+                }
+                long pooledVerify = System.nanoTime() - start;
+                if (round == 2) {
+                    System.out.println(bits + " bit key, " + iterations + " iterations:");
+                    print("sign", unpooledSign, pooledSign, iterations);
+                    print("verify", unpooledVerify, pooledVerify, iterations);
+                }
+            }
+        }
+    }
+
+    private static void print(String operation, long unpooled, long pooled, int iterations) {
+        System.out.println("  " + operation + ": new Signature " + (unpooled / 1000 / iterations)
+                + " usec, pooled " + (pooled / 1000 / iterations) + " usec, speedup "
+                + ((double) unpooled / pooled));
+    }
+
+}
@@ -30,6 +30,7 @@ import java.security.spec.EncodedKeySpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 import junit.framework.TestCase;
 import net.oauth.OAuth;
@@ -149,7 +150,7 @@ public class RSA_SHA1SignatureTest extends TestCase {
     // we don't need unpredictability, just uniqueness
     private static final Random random = new Random();
 
-    private static OAuthMessage prepareRequestMessage(OAuthConsumer consumer,
+    static OAuthMessage prepareRequestMessage(OAuthConsumer consumer,
                                                      String httpMethod,
                                                      URL url,
                                                      String signatureMethod) {
@@ -176,7 +177,7 @@ public class RSA_SHA1SignatureTest extends TestCase {
         OAuthSignatureMethod.newSigner(message, accessor).validate(message);
     }
 
-    private static void doTests(OAuthMessage message,
+    static void doTests(OAuthMessage message,
                                 OAuthAccessor clientAccessor,
                                 OAuthAccessor serverAccessor) throws Exception {
 
@@ -305,4 +306,47 @@ public class RSA_SHA1SignatureTest extends TestCase {
         OAuthAccessor accessor2 = new OAuthAccessor(serverX509PemCert);
         doTests(message, accessor1, accessor2);
     }
+
+    public void testSignVerifySha256() throws Exception {
+        URL url = new URL("http://www.google.com/foo?param1=value1&param2=value2");
+        OAuthMessage message = prepareRequestMessage(clientPemKey, "GET", url, OAuth.RSA_SHA256);
+        doTests(message, new OAuthAccessor(clientPemKey), new OAuthAccessor(serverX509PemCert));
+        message = prepareRequestMessage(clientPemKey, "GET", url, OAuth.RSA_SHA256);
+        message.sign(new OAuthAccessor(clientPemKey));
+        OAuthSignatureMethod sha1 = OAuthSignatureMethod.newMethod(OAuth.RSA_SHA1, new OAuthAccessor(
+                serverX509PemCert));
+        try {
+            sha1.validate(message);
+            fail("RSA-SHA256 signature was valid for RSA-SHA1");
+        } catch (OAuthException expected) {
+            // The provider might report a problem, or the wrong digest.
+        }
+    }
+
+    public void testKeyCache() throws Exception {
+        signAndVerify(clientDerKey, serverDerKey);
+        signAndVerify(clientPemKey, serverX509DerCert);
+        // The cache compares byte[] keys by content, not identity:
+        byte[] der = (byte[]) clientDerKey.getProperty(RSA_SHA1.PRIVATE_KEY);
+        OAuthConsumer copy = new OAuthConsumer(null, "google", null, null);
+        copy.setProperty(RSA_SHA1.PRIVATE_KEY, der.clone());
+        signAndVerify(copy, serverDerKey);
+        Arrays.fill(der, (byte) 0);
+        OAuthSignatureMethod.clearSigners();
+        try {
+            signAndVerify(clientDerKey, serverDerKey);
+            fail("signed with a corrupt key");
+        } catch (OAuthException expected) {
+        }
+        RSA_SHA1.forgetKeys(copy);
+        RSA_SHA1.clearKeys();
+        signAndVerify(copy, serverDerKey);
+        // A cached signer isn't used after its key property is replaced:
+        copy.setProperty(RSA_SHA1.PRIVATE_KEY, der);
+        try {
+            signAndVerify(copy, serverDerKey);
+            fail("signed with a replaced key");
+        } catch (OAuthException expected) {
+        }
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth.signature;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import net.oauth.OAuthAccessor;
+import net.oauth.OAuthConsumer;
+
+/**
+ * Measure the time to sign and verify a typical base string with each
+ * signature method. This isn't a unit test; run it like this:
+ *
+ * <pre>
+ * java -cp ... net.oauth.signature.SignatureMethodBenchmark [iterations [method...]]
+ * </pre>
+ */
+public class SignatureMethodBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        String[] methods = { "HMAC-SHA1", "HMAC-SHA256", "RSA-SHA1", "RSA-SHA256", "ECDSA-SHA256",
+                "ED25519" };
+        if (args.length > 1) {
+            methods = new String[args.length - 1];
+            System.arraycopy(args, 1, methods, 0, methods.length);
+        }
+        final byte[] baseString = ("POST&http%3A%2F%2Fprovider.example.net%2Fgadgets%2Fmakerequest&"
+                + "oauth_consumer_key%3Dexample.com%26oauth_nonce%3D7d8f3e4a%26"
+                + "oauth_signature_method%3DRSA-SHA1%26oauth_timestamp%3D1191242096%26"
+                + "oauth_version%3D1.0%26opensocial_owner_id%3D12345%26opensocial_viewer_id%3D12345")
+                .getBytes("US-ASCII");
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair rsa = generator.generateKeyPair();
+        OAuthConsumer consumer = new OAuthConsumer(null, "example.com", "consumer secret", null);
+        consumer.setProperty(RSA_SHA1.PRIVATE_KEY, rsa.getPrivate());
+        consumer.setProperty(RSA_SHA1.PUBLIC_KEY, rsa.getPublic());
+        generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        KeyPair ec = generator.generateKeyPair();
+        consumer.setProperty(ECDSA_SHA256.PRIVATE_KEY, ec.getPrivate());
+        consumer.setProperty(ECDSA_SHA256.PUBLIC_KEY, ec.getPublic());
+        if (ED25519.isAvailable()) {
+            KeyPair ed = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+            consumer.setProperty(ED25519.PRIVATE_KEY, ed.getPrivate());
+            consumer.setProperty(ED25519.PUBLIC_KEY, ed.getPublic());
+        }
+        OAuthAccessor accessor = new OAuthAccessor(consumer);
+        for (String name : methods) {
+            if (name.equals("ED25519") && !ED25519.isAvailable()) {
+                continue;
+            }
+            OAuthSignatureMethod method = OAuthSignatureMethod.newMethod(name, accessor);
+            method.setTokenSecret("token secret");
+            String signature = method.getSignature(baseString, baseString.length);
+            long sign = 0;
+            long verify = 0;
+            for (int round = 0; round < 3; ++round) { // The first rounds warm up.
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; ++i) {
+                    method.getSignature(baseString, baseString.length);
+                }
+                sign = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; ++i) {
+                    method.isValid(signature, baseString, baseString.length);
+                }
+                verify = System.nanoTime() - start;
+            }
+            System.out.println(name + ": sign " + (sign / iterations) + " nsec, verify "
+                    + (verify / iterations) + " nsec");
+        }
+    }
+
+}
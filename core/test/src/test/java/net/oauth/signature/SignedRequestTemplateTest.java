@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.oauth.signature;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import net.oauth.OAuth;
+import net.oauth.OAuthAccessor;
+import net.oauth.OAuthConsumer;
+import net.oauth.OAuthMessage;
+
+public class SignedRequestTemplateTest extends TestCase {
+
+    private static final OAuthConsumer CONSUMER = new OAuthConsumer(null, "dpf43f3p2l4k3l03",
+            "kd94hf93k423kf44", null);
+
+    private OAuthAccessor accessor;
+
+    @Override
+    public void setUp() {
+        accessor = new OAuthAccessor(CONSUMER);
+        accessor.accessToken = "nnch734d00sl2jdk";
+        accessor.tokenSecret = "pfkkdhi9sl3r4s00";
+    }
+
+    public void testSameAsMessage() throws Exception {
+        SignedRequestTemplate template = new SignedRequestTemplate("get",
+                "HTTP://Photos.Example.net:80/photos?size=original&file=vacation%20pic.jpg",
+                OAuth.newList("z", "last", OAuth.OAUTH_SIGNATURE_METHOD, OAuth.HMAC_SHA1, "a", "b c"));
+        for (int i = 0; i < 3; ++i) {
+            OAuthMessage templated = template.newMessage(accessor, OAuth.newList("size", "a" + i, "e",
+                    "&" + i));
+            assertSameSignature(templated);
+        }
+        OAuthMessage templated = template.newMessage(accessor, null);
+        assertSameSignature(templated);
+        assertEquals(OAuth.HMAC_SHA1, templated.getSignatureMethod());
+        assertEquals(accessor.accessToken, templated.getToken());
+        assertEquals(CONSUMER.consumerKey, templated.getConsumerKey());
+        assertEquals(OAuth.VERSION_1_0, templated.getParameter(OAuth.OAUTH_VERSION));
+    }
+
+    public void testSignatureMethod() throws Exception {
+        SignedRequestTemplate template = new SignedRequestTemplate(OAuthMessage.POST,
+                "http://example.com/request?oauth_signature_method=PLAINTEXT", null);
+        OAuthMessage templated = template.newMessage(accessor, null);
+        assertNull(templated.getSignatureMethod()); // It's in the query string.
+        assertEquals("kd94hf93k423kf44&pfkkdhi9sl3r4s00", templated.getSignature());
+        template = new SignedRequestTemplate(OAuthMessage.POST, "http://example.com/request", null);
+        templated = template.newMessage(accessor, OAuth.newList(OAuth.OAUTH_TIMESTAMP, "1",
+                OAuth.OAUTH_NONCE, "n", OAuth.OAUTH_SIGNATURE, "ignored"));
+        assertEquals(OAuth.HMAC_SHA1, templated.getSignatureMethod());
+        assertEquals("1", templated.getParameter(OAuth.OAUTH_TIMESTAMP));
+        assertEquals("n", templated.getParameter(OAuth.OAUTH_NONCE));
+        assertSameSignature(templated);
+    }
+
+    /** Changing a message from a template doesn't change the template. */
+    public void testImmutable() throws Exception {
+        SignedRequestTemplate template = new SignedRequestTemplate(OAuthMessage.GET,
+                "http://example.com/request?q=query", OAuth.newList("z", "static"));
+        OAuthMessage first = template.newMessage(accessor, null);
+        for (Map.Entry<String, String> p : first.getParameters()) {
+            if ("z".equals(p.getKey())) {
+                p.setValue("changed");
+            }
+        }
+        assertEquals("changed", first.getParameter("z"));
+        OAuthMessage next = template.newMessage(accessor, null);
+        assertEquals("static", next.getParameter("z"));
+        assertSameSignature(next);
+    }
+
+    /**
+     * Check that signing a copy of the given message in the usual way yields
+     * the same signature.
+     */
+    private void assertSameSignature(OAuthMessage templated) throws Exception {
+        List<Map.Entry<String, String>> parameters = new ArrayList<Map.Entry<String, String>>();
+        for (Map.Entry<String, String> p : templated.getParameters()) {
+            if (!OAuth.OAUTH_SIGNATURE.equals(p.getKey())) {
+                parameters.add(p);
+            }
+        }
+        OAuthMessage message = new OAuthMessage(templated.method, templated.URL, parameters);
+        message.sign(accessor);
+        assertEquals(OAuthSignatureMethod.getBaseString(message), message.getSignature(), templated
+                .getSignature());
+        OAuthSignatureMethod.newSigner(templated, accessor).validate(templated);
+    }
+
+}